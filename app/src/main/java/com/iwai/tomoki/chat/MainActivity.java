@@ -57,12 +57,12 @@ public class MainActivity extends AppCompatActivity {
                     .onErrorResumeNext(Observable.empty())
                     // 通信をバックグランドスレッドで実行
                     .subscribeOn(Schedulers.from(ChatApplication.getInstance().getThreadPoolExecutor()))
-                    // レスポンス処理をmainスレッドで実行
-                    .observeOn(AndroidSchedulers.mainThread())
                     // ユーザーIDを取得
                     .map(UserId::getAppUserId)
-                    // 暗号化
-                    .map(AndroidKeyStoreManager.getInstance()::encrypt)
+                    // キーストアの初期化完了を待って、バックグラウンドスレッドで暗号化
+                    .flatMapSingle(userId -> AndroidKeyStoreManager.bootstrap().map(manager -> manager.encrypt(userId)))
+                    // レスポンス処理をmainスレッドで実行
+                    .observeOn(AndroidSchedulers.mainThread())
                     // プログレスダイアログ表示
                     .doOnNext(e -> ProgressDialogFragment.show(getSupportFragmentManager()))
                     // プログレスダイアログ停止
@@ -3,8 +3,17 @@ package com.iwai.tomoki.chat.api.randomuser;
 import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
 import com.iwai.tomoki.chat.app.ChatApplication;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import io.reactivex.Observable;
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import retrofit2.http.GET;
 import retrofit2.http.Query;
 
@@ -12,8 +21,22 @@ import retrofit2.http.Query;
  * randomuser.me APIアクセサクラス
  */
 public class RandomUserApi {
+    /**
+     * 1ページあたりのユーザー数
+     */
+    public static final int PAGE_SIZE = 20;
+
     private static final String ORIGIN = "https://randomuser.me";
 
+    // レスポンスキャッシュのディレクトリ名
+    private static final String CACHE_DIR = "randomuser";
+    // レスポンスキャッシュの最大サイズ(byte)
+    private static final long CACHE_SIZE = 4 * 1024 * 1024;
+    // キャッシュを新鮮とみなす期間(秒)
+    private static final int CACHE_MAX_AGE = (int) TimeUnit.DAYS.toSeconds(1);
+    // 通信エラー時に期限切れキャッシュを利用できる期間(秒)
+    private static final int CACHE_STALE_IF_ERROR = (int) TimeUnit.DAYS.toSeconds(7);
+
     private static RandomUserApi instance;
 
     private Api mInterface;
@@ -49,7 +72,60 @@ public class RandomUserApi {
      * @return {@link OkHttpClient}
      */
     private OkHttpClient httpClient() {
-        return ChatApplication.httpClientBuilder().build();
+        final File dir = new File(ChatApplication.getInstance().getCacheDir(), CACHE_DIR);
+
+        return ChatApplication.httpClientBuilder()
+                .cache(new Cache(dir, CACHE_SIZE))
+                .addInterceptor(RandomUserApi::staleIfError)
+                .addNetworkInterceptor(RandomUserApi::forceCache)
+                .build();
+    }
+
+    /**
+     * レスポンスをキャッシュ可能とします。seedが固定されているため、ページ毎のレスポンスは常に同一です。
+     *
+     * @param chain {@link Interceptor.Chain}
+     * @return {@link Response}
+     * @throws IOException 通信エラー
+     */
+    private static Response forceCache(final Interceptor.Chain chain) throws IOException {
+        final Response res = chain.proceed(chain.request());
+        if (!res.isSuccessful()) {
+            return res;
+        }
+
+        return res.newBuilder()
+                .removeHeader("Pragma")
+                .header("Cache-Control", String.format("public, max-age=%d, stale-if-error=%d", CACHE_MAX_AGE, CACHE_STALE_IF_ERROR))
+                .build();
+    }
+
+    /**
+     * 通信エラー時は、期限切れであっても{@link #CACHE_STALE_IF_ERROR}秒以内のキャッシュを返却します。
+     *
+     * @param chain {@link Interceptor.Chain}
+     * @return {@link Response}
+     * @throws IOException 通信エラーかつキャッシュが存在しない場合
+     */
+    private static Response staleIfError(final Interceptor.Chain chain) throws IOException {
+        final Request req = chain.request();
+        try {
+            return chain.proceed(req);
+        } catch (IOException e) {
+            final Request cacheOnly = req.newBuilder()
+                    .cacheControl(new CacheControl.Builder()
+                            .onlyIfCached()
+                            .maxStale(CACHE_STALE_IF_ERROR, TimeUnit.SECONDS)
+                            .build())
+                    .build();
+
+            final Response cached = chain.proceed(cacheOnly);
+            if (!cached.isSuccessful()) {
+                cached.close();
+                throw e;
+            }
+            return cached;
+        }
     }
 
     /**
@@ -62,7 +138,7 @@ public class RandomUserApi {
          * @param page ページ番号
          * @return {@link RandomUserResponse}
          */
-        @GET("api?results=20&seed=hoge&nat=us")
+        @GET("api?results=" + PAGE_SIZE + "&seed=hoge&nat=us")
         Observable<RandomUserResponse> list(@Query("page") final Integer page);
     }
 }
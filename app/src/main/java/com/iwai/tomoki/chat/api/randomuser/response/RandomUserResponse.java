@@ -15,6 +15,45 @@ import lombok.Data;
  */
 public class RandomUserResponse {
     public List<User> results = Collections.emptyList();
+    public Info info = new Info();
+
+    /**
+     * コンストラクタ
+     */
+    public RandomUserResponse() {
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param page    ページ番号
+     * @param results ユーザーリスト
+     */
+    public RandomUserResponse(final int page, final List<User> results) {
+        this.info.setPage(page);
+        this.results = results;
+    }
+
+    /**
+     * ページ番号を取得します。
+     *
+     * @return ページ番号
+     */
+    public int getPage() {
+        return info == null ? 0 : info.getPage();
+    }
+
+    /**
+     * レスポンス情報
+     */
+    @Data
+    @SuppressWarnings("WeakerAccess")
+    public static class Info {
+        /**
+         * ページ番号
+         */
+        private int page;
+    }
 
     @Data
     public static class User {
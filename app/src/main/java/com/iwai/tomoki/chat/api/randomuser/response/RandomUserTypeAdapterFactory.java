@@ -0,0 +1,324 @@
+package com.iwai.tomoki.chat.api.randomuser.response;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link RandomUserResponse}をリフレクションを使わずにストリーミングでパースする{@link TypeAdapterFactory}
+ * <p>
+ * 利用しないフィールド(location, login, dob等)はオブジェクトを生成せずに読み飛ばします。
+ */
+public class RandomUserTypeAdapterFactory implements TypeAdapterFactory {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        final Class<? super T> raw = type.getRawType();
+
+        if (raw == RandomUserResponse.class) {
+            return (TypeAdapter<T>) new ResponseAdapter();
+        } else if (raw == RandomUserResponse.User.class) {
+            return (TypeAdapter<T>) new UserAdapter();
+        } else if (raw == RandomUserResponse.Name.class) {
+            return (TypeAdapter<T>) new NameAdapter();
+        } else if (raw == RandomUserResponse.Picture.class) {
+            return (TypeAdapter<T>) new PictureAdapter();
+        } else if (raw == RandomUserResponse.Info.class) {
+            return (TypeAdapter<T>) new InfoAdapter();
+        }
+        return null;
+    }
+
+    /**
+     * 文字列を読み込みます。nullの場合はnullを返却します。
+     *
+     * @param in {@link JsonReader}
+     * @return 文字列
+     * @throws IOException 読み込みエラー
+     */
+    private static String nextString(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    /**
+     * {@link RandomUserResponse}の{@link TypeAdapter}
+     */
+    private static class ResponseAdapter extends TypeAdapter<RandomUserResponse> {
+        private final UserAdapter mUserAdapter = new UserAdapter();
+        private final InfoAdapter mInfoAdapter = new InfoAdapter();
+
+        @Override
+        public void write(JsonWriter out, RandomUserResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("results").beginArray();
+            for (RandomUserResponse.User user : value.results) {
+                mUserAdapter.write(out, user);
+            }
+            out.endArray();
+            out.name("info");
+            mInfoAdapter.write(out, value.info);
+            out.endObject();
+        }
+
+        @Override
+        public RandomUserResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            final RandomUserResponse res = new RandomUserResponse();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "results":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            break;
+                        }
+
+                        final List<RandomUserResponse.User> results = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            results.add(mUserAdapter.read(in));
+                        }
+                        in.endArray();
+                        res.results = results;
+                        break;
+
+                    case "info":
+                        final RandomUserResponse.Info info = mInfoAdapter.read(in);
+                        if (info != null) {
+                            res.info = info;
+                        }
+                        break;
+
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+
+            return res;
+        }
+    }
+
+    /**
+     * {@link RandomUserResponse.User}の{@link TypeAdapter}
+     */
+    private static class UserAdapter extends TypeAdapter<RandomUserResponse.User> {
+        private final NameAdapter mNameAdapter = new NameAdapter();
+        private final PictureAdapter mPictureAdapter = new PictureAdapter();
+
+        @Override
+        public void write(JsonWriter out, RandomUserResponse.User value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("gender").value(value.getGender());
+            out.name("name");
+            mNameAdapter.write(out, value.getName());
+            out.name("email").value(value.getEmail());
+            out.name("picture");
+            mPictureAdapter.write(out, value.getPicture());
+            out.endObject();
+        }
+
+        @Override
+        public RandomUserResponse.User read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            final RandomUserResponse.User user = new RandomUserResponse.User();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "gender":
+                        user.setGender(nextString(in));
+                        break;
+                    case "name":
+                        user.setName(mNameAdapter.read(in));
+                        break;
+                    case "email":
+                        user.setEmail(nextString(in));
+                        break;
+                    case "picture":
+                        user.setPicture(mPictureAdapter.read(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+
+            return user;
+        }
+    }
+
+    /**
+     * {@link RandomUserResponse.Name}の{@link TypeAdapter}
+     */
+    private static class NameAdapter extends TypeAdapter<RandomUserResponse.Name> {
+        @Override
+        public void write(JsonWriter out, RandomUserResponse.Name value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("first").value(value.getFirst());
+            out.name("last").value(value.getLast());
+            out.endObject();
+        }
+
+        @Override
+        public RandomUserResponse.Name read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            final RandomUserResponse.Name name = new RandomUserResponse.Name();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "first":
+                        name.setFirst(nextString(in));
+                        break;
+                    case "last":
+                        name.setLast(nextString(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+
+            return name;
+        }
+    }
+
+    /**
+     * {@link RandomUserResponse.Picture}の{@link TypeAdapter}
+     */
+    private static class PictureAdapter extends TypeAdapter<RandomUserResponse.Picture> {
+        @Override
+        public void write(JsonWriter out, RandomUserResponse.Picture value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("large").value(value.getLarge());
+            out.name("medium").value(value.getMedium());
+            out.name("thumbnail").value(value.getThumbnail());
+            out.endObject();
+        }
+
+        @Override
+        public RandomUserResponse.Picture read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            final RandomUserResponse.Picture picture = new RandomUserResponse.Picture();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "large":
+                        picture.setLarge(nextString(in));
+                        break;
+                    case "medium":
+                        picture.setMedium(nextString(in));
+                        break;
+                    case "thumbnail":
+                        picture.setThumbnail(nextString(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+
+            return picture;
+        }
+    }
+
+    /**
+     * {@link RandomUserResponse.Info}の{@link TypeAdapter}
+     */
+    private static class InfoAdapter extends TypeAdapter<RandomUserResponse.Info> {
+        @Override
+        public void write(JsonWriter out, RandomUserResponse.Info value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("page").value(value.getPage());
+            out.endObject();
+        }
+
+        @Override
+        public RandomUserResponse.Info read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            final RandomUserResponse.Info info = new RandomUserResponse.Info();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "page":
+                        info.setPage(in.nextInt());
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+
+            return info;
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package com.iwai.tomoki.chat.api.repl.request;
 
 import com.annimon.stream.Optional;
-import com.iwai.tomoki.chat.security.AndroidKeyStoreManager;
-import com.iwai.tomoki.chat.util.SharedPreferencesUtil;
+import com.iwai.tomoki.chat.security.CredentialHolder;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -42,8 +41,7 @@ public class DialogueRequest {
      * @return {@link DialogueRequest}
      */
     public static DialogueRequest forStart() {
-        return Optional.ofNullable(SharedPreferencesUtil.getUserId())
-                .map(AndroidKeyStoreManager.getInstance()::decrypt)
+        return Optional.ofNullable(CredentialHolder.getUserId())
                 .map(userId -> new DialogueRequest(userId, "sample", "init", true, "aisatsu"))
                 .orElse(null);
     }
@@ -55,8 +53,7 @@ public class DialogueRequest {
      * @return {@link DialogueRequest}
      */
     public static DialogueRequest forTalk(final String body) {
-        return Optional.ofNullable(SharedPreferencesUtil.getUserId())
-                .map(AndroidKeyStoreManager.getInstance()::decrypt)
+        return Optional.ofNullable(CredentialHolder.getUserId())
                 .map(userId -> new DialogueRequest(userId, "sample", body, false, null))
                 .orElse(null);
     }
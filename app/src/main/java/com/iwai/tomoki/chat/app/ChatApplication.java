@@ -1,16 +1,30 @@
 package com.iwai.tomoki.chat.app;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.text.TextUtils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.iwai.tomoki.chat.BuildConfig;
-
+import com.iwai.tomoki.chat.api.randomuser.response.RandomUserTypeAdapterFactory;
+import com.iwai.tomoki.chat.security.AndroidKeyStoreManager;
+import com.iwai.tomoki.chat.util.TimestampTypeAdapter;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.util.Date;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -26,8 +40,36 @@ public class ChatApplication extends Application {
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
     private static final int CORE_POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
 
+    // HTTPコネクションプールに保持するアイドル接続数
+    private static final int HTTP_MAX_IDLE_CONNECTIONS = 5;
+    // HTTPアイドル接続の保持時間(秒)
+    private static final long HTTP_KEEP_ALIVE_DURATION = 5 * 60;
+    // 全体での同時リクエスト数の上限
+    private static final int HTTP_MAX_REQUESTS = 16;
+    // ホスト毎の同時リクエスト数の上限
+    private static final int HTTP_MAX_REQUESTS_PER_HOST = CORE_POOL_SIZE;
+
+    // 画像のディスクキャッシュのディレクトリ名(cacheDir配下)
+    private static final String IMAGE_DISK_CACHE_DIR = "picasso";
+    // 画像のディスクキャッシュサイズ(バイト)
+    private static final long IMAGE_DISK_CACHE_SIZE = 32L * 1024 * 1024;
+    // ヒープ上限に対する画像のメモリキャッシュサイズの割合(1/n)
+    private static final int IMAGE_MEMORY_CACHE_HEAP_DIVISOR = 8;
+
+    // 全APIで共有するGson(スレッドセーフ)
+    private static final Gson GSON = new GsonBuilder()
+            // 日時はロックを取らない固定フォーマットのアダプタでパース
+            .registerTypeAdapter(Date.class, new TimestampTypeAdapter().nullSafe())
+            // randomuser.meのレスポンスはリフレクションを使わずにパース
+            .registerTypeAdapterFactory(new RandomUserTypeAdapterFactory())
+            .create();
+
     private Executor mThreadPoolExecutor;
 
+    private OkHttpClient mHttpClient;
+
+    private Picasso mPicasso;
+
     private static ChatApplication mInstance;
 
     /**
@@ -41,6 +83,17 @@ public class ChatApplication extends Application {
         if (TextUtils.equals(BuildConfig.BUILD_TYPE, "debug")) {
             Timber.plant(new Timber.DebugTree());
         }
+
+        // タイムゾーンの変更を日時の変換へ反映
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                TimestampTypeAdapter.onTimeZoneChanged();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+
+        // キーストアの読み込みと鍵ペアの生成をバックグラウンドで開始
+        AndroidKeyStoreManager.bootstrap();
     }
 
     /**
@@ -74,20 +127,66 @@ public class ChatApplication extends Application {
     }
 
     /**
-     * {@link OkHttpClient.Builder}を生成します。
+     * アプリケーション全体で共有する{@link OkHttpClient}を取得します。
+     * コネクションプール、ディスパッチャー、TLSセッションキャッシュは全APIで共有されます。
+     *
+     * @return {@link OkHttpClient}
+     */
+    public synchronized OkHttpClient getHttpClient() {
+        if (mHttpClient == null) {
+            // HTTP通信ログをTimber経由で出力
+            final HttpLoggingInterceptor logging = new HttpLoggingInterceptor(Timber::d);
+            logging.setLevel(HttpLoggingInterceptor.Level.BASIC);
+
+            final Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(HTTP_MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(HTTP_MAX_REQUESTS_PER_HOST);
+
+            mHttpClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(HTTP_MAX_IDLE_CONNECTIONS, HTTP_KEEP_ALIVE_DURATION, TimeUnit.SECONDS))
+                    .dispatcher(dispatcher)
+                    .connectTimeout(10, TimeUnit.SECONDS)
+                    .readTimeout(20, TimeUnit.SECONDS)
+                    .writeTimeout(10, TimeUnit.SECONDS)
+                    .addInterceptor(logging)
+                    .build();
+        }
+
+        return mHttpClient;
+    }
+
+    /**
+     * 共有{@link OkHttpClient}から派生した{@link OkHttpClient.Builder}を生成します。
+     * 生成した{@link OkHttpClient}はコネクションプールとディスパッチャーを共有します。
      *
      * @return {@link OkHttpClient.Builder}
      */
     public static OkHttpClient.Builder httpClientBuilder() {
-        // HTTP通信ログをTimber経由で出力
-        final HttpLoggingInterceptor logging = new HttpLoggingInterceptor(Timber::d);
-        logging.setLevel(HttpLoggingInterceptor.Level.BASIC);
-
-        return new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(20, TimeUnit.SECONDS)
-                .writeTimeout(10, TimeUnit.SECONDS)
-                .addInterceptor(logging);
+        return getInstance().getHttpClient().newBuilder();
+    }
+
+    /**
+     * アプリケーション全体で共有する{@link Picasso}を取得します。
+     * 画像は共有{@link OkHttpClient}のコネクションプールで取得し、サイズ上限付きのディスクキャッシュに保存するため、
+     * 再起動後もプロフィール画像を再ダウンロードせずに表示できます。
+     * 取得・デコードはPicasso標準のexecutorで行うため、リクエストの優先度順に実行され、スレッド数は回線種別に合わせて調整されます。
+     *
+     * @return {@link Picasso}
+     */
+    public synchronized Picasso getPicasso() {
+        if (mPicasso == null) {
+            // 画像用のディスクキャッシュ(LRUで古いものから破棄)
+            final OkHttpClient client = httpClientBuilder()
+                    .cache(new Cache(new File(getCacheDir(), IMAGE_DISK_CACHE_DIR), IMAGE_DISK_CACHE_SIZE))
+                    .build();
+
+            mPicasso = new Picasso.Builder(this)
+                    .downloader(new OkHttp3Downloader(client))
+                    .memoryCache(new LruCache((int) (Runtime.getRuntime().maxMemory() / IMAGE_MEMORY_CACHE_HEAP_DIVISOR)))
+                    .build();
+        }
+
+        return mPicasso;
     }
 
     /**
@@ -96,12 +195,10 @@ public class ChatApplication extends Application {
      * @return {@link Retrofit.Builder}
      */
     public static Retrofit.Builder retrofitBuilder() {
-        final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
-
         return new Retrofit.Builder()
                 .callbackExecutor(getInstance().getThreadPoolExecutor())
                 // レスポンスをgoogle-gsonでパース
-                .addConverterFactory(GsonConverterFactory.create(gson))
+                .addConverterFactory(GsonConverterFactory.create(GSON))
                 // RetrofitとRxJavaを連携
                 .addCallAdapterFactory(RxJava2CallAdapterFactory.create());
     }
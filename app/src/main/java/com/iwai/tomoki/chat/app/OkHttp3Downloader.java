@@ -0,0 +1,79 @@
+package com.iwai.tomoki.chat.app;
+
+import android.net.Uri;
+
+import com.squareup.picasso.Downloader;
+import com.squareup.picasso.NetworkPolicy;
+
+import java.io.IOException;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+/**
+ * {@link OkHttpClient}(OkHttp3)で画像を取得する{@link com.squareup.picasso.Picasso}用の{@link Downloader}
+ * <p>
+ * Picasso 2.5.2が標準で対応しているのはOkHttp2のため、アプリ共有のOkHttp3クライアントを使うために実装しています。
+ * ディスクキャッシュは{@link OkHttpClient}に設定された{@link Cache}を使用します。
+ */
+public class OkHttp3Downloader implements Downloader {
+    private final OkHttpClient mClient;
+
+    /**
+     * コンストラクタ
+     *
+     * @param client {@link OkHttpClient}
+     */
+    public OkHttp3Downloader(final OkHttpClient client) {
+        mClient = client;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Response load(Uri uri, int networkPolicy) throws IOException {
+        final Request.Builder builder = new Request.Builder().url(uri.toString());
+
+        if (networkPolicy != 0) {
+            if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
+                builder.cacheControl(CacheControl.FORCE_CACHE);
+            } else {
+                final CacheControl.Builder cacheControl = new CacheControl.Builder();
+                if (!NetworkPolicy.shouldReadFromDiskCache(networkPolicy)) {
+                    cacheControl.noCache();
+                }
+                if (!NetworkPolicy.shouldWriteToDiskCache(networkPolicy)) {
+                    cacheControl.noStore();
+                }
+                builder.cacheControl(cacheControl.build());
+            }
+        }
+
+        final okhttp3.Response response = mClient.newCall(builder.build()).execute();
+        final ResponseBody body = response.body();
+        if (response.code() >= 300 || body == null) {
+            response.close();
+            throw new ResponseException(response.code() + " " + response.message(), networkPolicy, response.code());
+        }
+
+        return new Response(body.byteStream(), response.cacheResponse() != null, body.contentLength());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        final Cache cache = mClient.cache();
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -8,7 +8,9 @@ import android.support.v7.widget.AppCompatEditText;
 import android.support.v7.widget.AppCompatImageButton;
 import android.support.v7.widget.AppCompatImageView;
 import android.support.v7.widget.AppCompatTextView;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextPaint;
 import android.text.TextUtils;
 import android.transition.TransitionInflater;
 import android.view.ContextThemeWrapper;
@@ -23,20 +25,27 @@ import com.iwai.tomoki.chat.api.repl.ReplAiApi;
 import com.iwai.tomoki.chat.api.repl.request.DialogueRequest;
 import com.iwai.tomoki.chat.app.ChatApplication;
 import com.iwai.tomoki.chat.entity.Message;
+import com.iwai.tomoki.chat.repository.MessageLog;
+import com.iwai.tomoki.chat.repository.MessageStore;
+import com.iwai.tomoki.chat.repository.PagedMessageSource;
+import com.iwai.tomoki.chat.util.AvatarLoader;
+import com.iwai.tomoki.chat.view.MessageBodyView;
+import com.iwai.tomoki.chat.view.TextLayoutCache;
 import com.jakewharton.rxbinding2.view.RxView;
 import com.jakewharton.rxbinding2.widget.RxTextView;
 import com.makeramen.roundedimageview.RoundedTransformationBuilder;
 import com.squareup.picasso.Picasso;
 import com.squareup.picasso.Transformation;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
 
 /**
  * チャットフラグメントクラス
@@ -52,6 +61,31 @@ public class ChatDetailFragment extends Fragment {
      * パラメータ名：プロフィール画像
      */
     private static final String PARAM_USER_PICTURE = "param1";
+    /**
+     * パラメータ名：会話ID
+     */
+    private static final String PARAM_CONVERSATION_ID = "param2";
+    /**
+     * パラメータ名：プロフィール画像(medium)
+     */
+    private static final String PARAM_USER_PICTURE_MEDIUM = "param3";
+    /**
+     * パラメータ名：プロフィール画像(サムネイル)
+     */
+    private static final String PARAM_USER_PICTURE_THUMBNAIL = "param4";
+
+    /**
+     * 会話履歴を1度に読み込む件数
+     */
+    private static final int HISTORY_PAGE_SIZE = 50;
+    /**
+     * 会話履歴をメモリ上に保持する最大件数
+     */
+    private static final int HISTORY_WINDOW_SIZE = 200;
+    /**
+     * 表示範囲の前後何件まで本文のレイアウトを事前に作成するか
+     */
+    private static final int LAYOUT_PREFETCH_DISTANCE = 20;
 
     /**
      * {@link Picasso}で画像を丸く切り取るための{@link Transformation}実装
@@ -85,9 +119,25 @@ public class ChatDetailFragment extends Fragment {
     private ChatAdapter mChatAdapter;
 
     /**
-     * 会話相手のプロフィール画像URL
+     * 会話履歴
+     */
+    private Single<MessageLog> mMessageLog;
+    /**
+     * 表示位置周辺の会話履歴
+     */
+    private PagedMessageSource mMessageSource;
+    /**
+     * メッセージ本文のレイアウトキャッシュ
+     */
+    private TextLayoutCache mTextLayoutCache;
+    /**
+     * 会話履歴のロードを開始済みかどうか
+     */
+    private boolean mHistoryRequested;
+    /**
+     * 返信待ちのリクエスト(画面破棄時に破棄する)
      */
-    private String mHerProfileUrl;
+    private final CompositeDisposable mSubscriptions = new CompositeDisposable();
 
     /**
      * Create new instance.
@@ -98,6 +148,9 @@ public class ChatDetailFragment extends Fragment {
         final Bundle args = new Bundle();
         args.putString(PARAM_USER_NAME, user.getFullName());
         args.putString(PARAM_USER_PICTURE, user.getPicture().getLarge());
+        args.putString(PARAM_USER_PICTURE_MEDIUM, user.getPicture().getMedium());
+        args.putString(PARAM_USER_PICTURE_THUMBNAIL, user.getPicture().getThumbnail());
+        args.putString(PARAM_CONVERSATION_ID, MessageLog.conversationId(user));
         fragment.setArguments(args);
 
         return fragment;
@@ -127,6 +180,32 @@ public class ChatDetailFragment extends Fragment {
 
         setSharedElementEnterTransition(TransitionInflater.from(ChatApplication.getInstance()).inflateTransition(android.R.transition.move));
         setSharedElementReturnTransition(TransitionInflater.from(ChatApplication.getInstance()).inflateTransition(android.R.transition.move));
+
+        // 会話履歴をバックグラウンドで開く(同じ会話を表示中の画面とはインスタンスを共有する)
+        final String conversationId = Optional.ofNullable(getArguments())
+                .map(args -> args.getString(PARAM_CONVERSATION_ID))
+                .orElse("");
+        mMessageLog = MessageLog.acquire(conversationId).cache();
+        mMessageSource = new PagedMessageSource(mMessageLog, HISTORY_PAGE_SIZE, HISTORY_WINDOW_SIZE);
+        mMessageSource.setProfileUrl(Message.TYPE_HER, AvatarLoader.selectUrl(getUserPicture(),
+                getResources().getDimensionPixelSize(R.dimen.chat_message_avatar_size)));
+
+        mTextLayoutCache = createTextLayoutCache();
+    }
+
+    /**
+     * メッセージ本文のレイアウトキャッシュを作成します。
+     *
+     * @return {@link TextLayoutCache}
+     */
+    private TextLayoutCache createTextLayoutCache() {
+        // テーマ既定のテキストの見た目を引き継ぐ
+        final AppCompatTextView template = new AppCompatTextView(new ContextThemeWrapper(ChatApplication.getInstance(), R.style.AppTheme));
+        final TextPaint paint = new TextPaint(template.getPaint());
+        paint.setColor(template.getCurrentTextColor());
+        paint.linkColor = template.getLinkTextColors().getDefaultColor();
+
+        return new TextLayoutCache(paint, HISTORY_WINDOW_SIZE + HISTORY_PAGE_SIZE);
     }
 
     /**
@@ -173,15 +252,28 @@ public class ChatDetailFragment extends Fragment {
                 .ifPresent(mName::setText);
 
         // サムネイル画像
-        Optional.ofNullable(getArguments())
-                .map(args -> args.getString(PARAM_USER_PICTURE))
-                .executeIfPresent(url -> mHerProfileUrl = url)
-                .ifPresent(url -> Picasso.with(ChatApplication.getInstance()).load(url).transform(OVAL).into(mPicture));
+        final int pictureSize = getResources().getDimensionPixelSize(R.dimen.chat_header_avatar_size);
+        AvatarLoader.into(AvatarLoader.selectUrl(getUserPicture(), pictureSize), pictureSize, OVAL, mPicture);
 
-        mChatAdapter = new ChatAdapter();
+        mChatAdapter = new ChatAdapter(mMessageSource, mTextLayoutCache);
         mRecyclerView.setAdapter(mChatAdapter);
     }
 
+    /**
+     * 会話相手のプロフィール画像を取得します。
+     *
+     * @return {@link RandomUserResponse.Picture}
+     */
+    private RandomUserResponse.Picture getUserPicture() {
+        final RandomUserResponse.Picture picture = new RandomUserResponse.Picture();
+        Optional.ofNullable(getArguments()).ifPresent(args -> {
+            picture.setLarge(args.getString(PARAM_USER_PICTURE));
+            picture.setMedium(args.getString(PARAM_USER_PICTURE_MEDIUM));
+            picture.setThumbnail(args.getString(PARAM_USER_PICTURE_THUMBNAIL));
+        });
+        return picture;
+    }
+
     /**
      * UIイベントハンドラーを登録します。
      */
@@ -194,6 +286,14 @@ public class ChatDetailFragment extends Fragment {
         RxView.clicks(mBtnSend).debounce(500, TimeUnit.MILLISECONDS)
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(this::onClickSend);
+        // スクロール位置に応じて会話履歴を読み込む
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                final LinearLayoutManager lm = (LinearLayoutManager) recyclerView.getLayoutManager();
+                mMessageSource.onScrolled(lm.findFirstVisibleItemPosition(), lm.findLastVisibleItemPosition());
+            }
+        });
     }
 
     /**
@@ -219,7 +319,10 @@ public class ChatDetailFragment extends Fragment {
     public void onResume() {
         super.onResume();
 
-        loadDialogue();
+        if (!mHistoryRequested) {
+            mHistoryRequested = true;
+            loadHistory();
+        }
     }
 
     /**
@@ -246,6 +349,19 @@ public class ChatDetailFragment extends Fragment {
         super.onDestroyView();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDestroy() {
+        // 画面を離れた後の返信は破棄する
+        mSubscriptions.dispose();
+        // 受信済みのメッセージを書き終えてから会話履歴を解放する
+        mMessageSource.close();
+
+        super.onDestroy();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -282,7 +398,7 @@ public class ChatDetailFragment extends Fragment {
 
         // チャットへ発言を表示
         final Message msg = new Message(Message.TYPE_ME, body, new Date());
-        mChatAdapter.addItem(msg);
+        mMessageSource.add(msg);
 
         // メッセージを送信
         sendMessage(body);
@@ -292,17 +408,34 @@ public class ChatDetailFragment extends Fragment {
     // 通信処理
     /////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * 保存済みの会話履歴の最新ページをロードします。履歴がない場合は会話を開始します。
+     */
+    private void loadHistory() {
+        mMessageSource.loadLatest()
+                .onErrorReturnItem(0)
+                .subscribe(total -> {
+                    if (total == 0) {
+                        loadDialogue();
+                        return;
+                    }
+
+                    // 最新のメッセージまでスクロール
+                    mRecyclerView.scrollToPosition(mChatAdapter.getItemCount() - 1);
+                });
+    }
+
     /**
      * 会話データをロードします。
      */
     private void loadDialogue() {
-        ReplAiApi.get().dialogue(DialogueRequest.forStart())
+        // ユーザーIDの復号化をバックグラウンドスレッドで行う
+        mSubscriptions.add(Observable.defer(() -> ReplAiApi.get().dialogue(DialogueRequest.forStart()))
                 .onErrorResumeNext(Observable.empty())
                 .subscribeOn(Schedulers.from(ChatApplication.getInstance().getThreadPoolExecutor()))
                 .observeOn(AndroidSchedulers.mainThread())
                 .map(Message::new)
-                .doOnNext(obj -> obj.setProfileUrl(mHerProfileUrl))
-                .subscribe(mChatAdapter::addItem);
+                .subscribe(mMessageSource::add, Timber::e));
     }
 
     /**
@@ -311,13 +444,13 @@ public class ChatDetailFragment extends Fragment {
      * @param message メッセージ本文
      */
     private void sendMessage(final String message) {
-        ReplAiApi.get().dialogue(DialogueRequest.forTalk(message))
+        // ユーザーIDの復号化をバックグラウンドスレッドで行う
+        mSubscriptions.add(Observable.defer(() -> ReplAiApi.get().dialogue(DialogueRequest.forTalk(message)))
                 .onErrorResumeNext(Observable.empty())
                 .subscribeOn(Schedulers.from(ChatApplication.getInstance().getThreadPoolExecutor()))
                 .observeOn(AndroidSchedulers.mainThread())
                 .map(Message::new)
-                .doOnNext(obj -> obj.setProfileUrl(mHerProfileUrl))
-                .subscribe(mChatAdapter::addItem);
+                .subscribe(mMessageSource::add, Timber::e));
     }
 
     /////////////////////////////////////////////////////////////////////////////////////
@@ -329,7 +462,7 @@ public class ChatDetailFragment extends Fragment {
      */
     @SuppressWarnings("WeakerAccess")
     public static abstract class MessageViewHolder extends RecyclerView.ViewHolder {
-        private AppCompatTextView mBody;
+        private MessageBodyView mBody;
 
         /**
          * コンストラクタ
@@ -344,10 +477,13 @@ public class ChatDetailFragment extends Fragment {
          * 値をセットします。
          *
          * @param message 値
+         * @param id      メッセージID
+         * @param cache   本文のレイアウトキャッシュ
          */
-        public void setValue(final Message message) {
-            // 本文
-            Optional.ofNullable(message).map(Message::getBody).ifPresent(mBody::setText);
+        public void setValue(final MessageStore.MessageView message, final long id, final TextLayoutCache cache) {
+            // 本文(事前計算済みのレイアウトがあればそれを使用)
+            final CharSequence text = cache.getText(id);
+            mBody.setText(cache, id, message.getType(), text != null ? text : message.getBodyText());
         }
     }
 
@@ -372,6 +508,7 @@ public class ChatDetailFragment extends Fragment {
         private static final int LAYOUT = R.layout.chat_detail_list_item_her;
 
         private AppCompatImageView mPicture;
+        private final int mPictureSize;
 
         /**
          * コンストラクタ
@@ -380,33 +517,45 @@ public class ChatDetailFragment extends Fragment {
             super(itemView);
 
             mPicture = itemView.findViewById(R.id.image_picture);
+            mPictureSize = itemView.getResources().getDimensionPixelSize(R.dimen.chat_message_avatar_size);
         }
 
         /**
          * {@inheritDoc}
          */
-        public void setValue(final Message message) {
-            super.setValue(message);
+        @Override
+        public void setValue(final MessageStore.MessageView message, final long id, final TextLayoutCache cache) {
+            super.setValue(message, id, cache);
 
-            // プロフィール画像
-            Optional.ofNullable(message)
-                    .map(Message::getProfileUrl)
-                    .ifPresent(url -> Picasso.with(ChatApplication.getInstance()).load(url).transform(OVAL).into(mPicture));
+            // プロフィール画像(2件目以降は変形済みの画像をキャッシュから表示)
+            AvatarLoader.into(message.getProfileUrl(), mPictureSize, OVAL, mPicture);
         }
     }
 
     /**
      * {@link RecyclerView}の{@link RecyclerView.Adapter}実装クラス
      */
-    private static class ChatAdapter extends RecyclerView.Adapter<MessageViewHolder> {
+    private static class ChatAdapter extends RecyclerView.Adapter<MessageViewHolder> implements PagedMessageSource.Listener {
         private final LayoutInflater mInflater;
-        private List<Message> mData = new ArrayList<>();
+        private final PagedMessageSource mSource;
+        private final TextLayoutCache mTextLayoutCache;
+
+        // 表示先のRecyclerView(表示範囲の取得に使用)
+        private RecyclerView mRecyclerView;
 
         /**
          * コンストラクタ
+         *
+         * @param source          表示する会話履歴
+         * @param textLayoutCache 本文のレイアウトキャッシュ
          */
-        private ChatAdapter() {
+        private ChatAdapter(final PagedMessageSource source, final TextLayoutCache textLayoutCache) {
             mInflater = LayoutInflater.from(new ContextThemeWrapper(ChatApplication.getInstance(), R.style.AppTheme));
+            mSource = source;
+            mTextLayoutCache = textLayoutCache;
+
+            mSource.setListener(this);
+            setHasStableIds(true);
         }
 
         /**
@@ -422,12 +571,30 @@ public class ChatDetailFragment extends Fragment {
             return null;
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+            super.onAttachedToRecyclerView(recyclerView);
+            mRecyclerView = recyclerView;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+            mRecyclerView = null;
+            super.onDetachedFromRecyclerView(recyclerView);
+        }
+
         /**
          * {@inheritDoc}
          */
         @Override
         public void onBindViewHolder(MessageViewHolder holder, int position) {
-            holder.setValue(getItem(position));
+            holder.setValue(getItem(position), getItemId(position), mTextLayoutCache);
         }
 
         /**
@@ -435,7 +602,15 @@ public class ChatDetailFragment extends Fragment {
          */
         @Override
         public int getItemCount() {
-            return mData.size();
+            return mSource.size();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getItemId(int position) {
+            return mSource.getId(position);
         }
 
         /**
@@ -443,32 +618,82 @@ public class ChatDetailFragment extends Fragment {
          */
         @Override
         public int getItemViewType(int position) {
-            return Optional.ofNullable(mData.get(position)).map(Message::getType).orElse(Message.TYPE_ME);
+            return mSource.getType(position);
         }
 
         /**
-         * データを取得します。
+         * データを取得します。戻り値は次の呼び出しまでしか有効ではありません。
          *
          * @param position インデックス
          * @return データ
          */
-        Message getItem(final int position) {
-            return mData.get(position);
+        MessageStore.MessageView getItem(final int position) {
+            return mSource.get(position);
         }
 
         /**
-         * データを追加します。
+         * {@inheritDoc}
+         */
+        @Override
+        public void onInserted(int position, int count) {
+            // 表示範囲の近くに挿入されたメッセージのみ、レイアウトをバックグラウンドで作成しておく
+            final int from = Math.max(position, getPrefetchStart(position, count));
+            final int to = Math.min(position + count, getPrefetchEnd(position, count));
+            for (int i = from; i < to; i++) {
+                mTextLayoutCache.prefetch(mSource.getId(i), mSource.getType(i), mSource.get(i).getBodyText());
+            }
+
+            notifyItemRangeInserted(position, count);
+        }
+
+        /**
+         * 挿入後の位置で、レイアウトを事前に作成する範囲の先頭を取得します。
          *
-         * @param data データ
+         * @param position 挿入位置
+         * @param count    挿入件数
+         * @return 範囲の先頭(含む)
          */
-        void addItem(final Message data) {
-            if (data == null) {
-                return;
+        private int getPrefetchStart(final int position, final int count) {
+            final LinearLayoutManager lm = getLayoutManager();
+            final int first = lm == null ? RecyclerView.NO_POSITION : lm.findFirstVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) {
+                // 表示前は最新のメッセージ(末尾)から表示する
+                return mSource.size() - LAYOUT_PREFETCH_DISTANCE;
             }
+            return (first >= position ? first + count : first) - LAYOUT_PREFETCH_DISTANCE;
+        }
 
-            mData.add(data);
+        /**
+         * 挿入後の位置で、レイアウトを事前に作成する範囲の末尾を取得します。
+         *
+         * @param position 挿入位置
+         * @param count    挿入件数
+         * @return 範囲の末尾(含まない)
+         */
+        private int getPrefetchEnd(final int position, final int count) {
+            final LinearLayoutManager lm = getLayoutManager();
+            final int last = lm == null ? RecyclerView.NO_POSITION : lm.findLastVisibleItemPosition();
+            if (last == RecyclerView.NO_POSITION) {
+                return mSource.size();
+            }
+            return (last >= position ? last + count : last) + 1 + LAYOUT_PREFETCH_DISTANCE;
+        }
 
-            notifyItemInserted(mData.size());
+        /**
+         * 表示先の{@link LinearLayoutManager}を取得します。
+         *
+         * @return {@link LinearLayoutManager}(表示前はnull)
+         */
+        private LinearLayoutManager getLayoutManager() {
+            return mRecyclerView == null ? null : (LinearLayoutManager) mRecyclerView.getLayoutManager();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
         }
     }
 }
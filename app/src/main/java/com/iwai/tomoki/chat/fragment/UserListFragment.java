@@ -9,7 +9,6 @@ import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.AppCompatImageView;
 import android.support.v7.widget.AppCompatTextView;
 import android.support.v7.widget.DividerItemDecoration;
-import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.transition.TransitionInflater;
 import android.view.ContextThemeWrapper;
@@ -17,15 +16,16 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.annimon.stream.Optional;
 import com.iwai.tomoki.chat.R;
 import com.iwai.tomoki.chat.api.randomuser.RandomUserApi;
 import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
 import com.iwai.tomoki.chat.app.ChatApplication;
-import com.jakewharton.rxbinding2.support.v7.widget.RecyclerViewScrollEvent;
-import com.jakewharton.rxbinding2.support.v7.widget.RxRecyclerView;
+import com.iwai.tomoki.chat.repository.UserPageLoader;
+import com.iwai.tomoki.chat.util.AvatarLoader;
+import com.iwai.tomoki.chat.view.AsyncListDiffer;
+import com.iwai.tomoki.chat.view.AvatarPrefetchScrollListener;
+import com.iwai.tomoki.chat.view.PaginationScrollListener;
 import com.jakewharton.rxbinding2.view.RxView;
-import com.squareup.picasso.Picasso;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
@@ -35,8 +35,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.functions.Predicate;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.subjects.PublishSubject;
 import io.reactivex.subjects.Subject;
 import lombok.AllArgsConstructor;
@@ -48,18 +47,13 @@ import static android.widget.LinearLayout.VERTICAL;
  */
 public class UserListFragment extends Fragment {
     /**
-     * RecyclerViewのスクロールが最下部に達していることを判定する{@link Predicate}
+     * リスト末尾の何件手前で次ページのロードを開始するか
      */
-    private static final Predicate<RecyclerViewScrollEvent> REACH_BOTTOM = e -> Optional.of(e)
-            // viewを取得
-            .map(RecyclerViewScrollEvent::view)
-            // レイアウトマネージャーを取得
-            .map(RecyclerView::getLayoutManager).map(LinearLayoutManager.class::cast)
-            // 要素が1つ以上ある場合
-            .filter(lm -> lm.getItemCount() > 0)
-            // 最後の要素が見えている場合
-            .map(lm -> lm.getItemCount() - 1 <= lm.findLastCompletelyVisibleItemPosition())
-            .orElse(false);
+    private static final int PREFETCH_DISTANCE = 5;
+    /**
+     * 表示範囲の何件先までプロフィール画像を先読みするか
+     */
+    private static final int AVATAR_PREFETCH_COUNT = 8;
 
     /**
      * {@link SwipeRefreshLayout}
@@ -78,15 +72,27 @@ public class UserListFragment extends Fragment {
      * ユーザーリスト表示{@link RecyclerView}のデータアダプター
      */
     private UserListAdapter mUserListAdapter = new UserListAdapter();
-
     /**
-     * 表示しているユーザーリストデータのページ番号
+     * 次ページのロードを要求する{@link RecyclerView.OnScrollListener}
      */
-    private int mCurrentPageNumber;
+    private PaginationScrollListener mPaginator = new PaginationScrollListener(PREFETCH_DISTANCE, this::onReachBottom);
+    /**
+     * スクロール方向の先にある行のプロフィール画像を先読みする{@link RecyclerView.OnScrollListener}
+     */
+    private AvatarPrefetchScrollListener mAvatarPrefetcher;
+
     /**
      * ユーザーリストデータロード完了通知オブジェクト
      */
-    private Subject<RandomUserResponse> mDataLoadedNotification = PublishSubject.create();
+    private Subject<Event.PageLoaded> mDataLoadedNotification = PublishSubject.create();
+    /**
+     * ユーザーリストデータロード完了通知の購読(Viewの破棄時に解除する)
+     */
+    private Disposable mDataLoadedSubscription;
+    /**
+     * ユーザーリストのページロード制御オブジェクト
+     */
+    private UserPageLoader mPageLoader = new UserPageLoader((data, reset) -> mDataLoadedNotification.onNext(new Event.PageLoaded(data, reset)));
 
     /**
      * Create new instance.
@@ -169,22 +175,16 @@ public class UserListFragment extends Fragment {
         mRefreshLayout.setOnRefreshListener(this::onRefresh);
 
         // 通信完了のリスナーを登録
-        mDataLoadedNotification.subscribe(this::onDataLoaded);
-
-        // RecyclerViewのスクロールイベント
-        RxRecyclerView.scrollEvents(mRecyclerView)
-                // ロード完了までは無視する
-                .skipUntil(mDataLoadedNotification)
-                // 最下部に達したら
-                .filter(REACH_BOTTOM)
-                // 一回だけ
-                .take(1)
-                // completeしたら再度subscribeする
-                .repeat()
-                // プログレスダイアログ表示
-                .doOnNext(e -> ProgressDialogFragment.show(getFragmentManager()))
-                // ハンドラーを設定
-                .subscribe(this::onReachBottom);
+        mDataLoadedSubscription = mDataLoadedNotification.subscribe(this::onDataLoaded);
+
+        // RecyclerViewのスクロールイベント(ロード完了までは無視する)
+        mPaginator.setLoading(true);
+        mRecyclerView.addOnScrollListener(mPaginator);
+
+        // プロフィール画像の先読み
+        mAvatarPrefetcher = new AvatarPrefetchScrollListener(AVATAR_PREFETCH_COUNT,
+                getResources().getDimensionPixelSize(R.dimen.user_list_avatar_size), this::getAvatarUrl);
+        mRecyclerView.addOnScrollListener(mAvatarPrefetcher);
     }
 
     /**
@@ -213,10 +213,10 @@ public class UserListFragment extends Fragment {
     public void onResume() {
         super.onResume();
 
-        if (mCurrentPageNumber == 0) {
+        if (!mPageLoader.hasLoaded()) {
             loadUserList();
         } else {
-            mDataLoadedNotification.onNext(new RandomUserResponse());
+            mDataLoadedNotification.onNext(new Event.PageLoaded(new RandomUserResponse(), false));
         }
     }
 
@@ -234,6 +234,8 @@ public class UserListFragment extends Fragment {
     @Override
     public void onStop() {
         EventBus.getDefault().unregister(this);
+        // 画面を離れたら先読みを中止
+        mAvatarPrefetcher.cancel();
         super.onStop();
     }
 
@@ -242,6 +244,12 @@ public class UserListFragment extends Fragment {
      */
     @Override
     public void onDestroyView() {
+        // 破棄したViewへロード結果を反映しないよう、実行中のロードと通知の購読を破棄
+        mPageLoader.cancel();
+        mDataLoadedSubscription.dispose();
+
+        mRecyclerView.removeOnScrollListener(mAvatarPrefetcher);
+        mAvatarPrefetcher.cancel();
         super.onDestroyView();
     }
 
@@ -278,35 +286,46 @@ public class UserListFragment extends Fragment {
      * リストのリフレッシュイベントをハンドリングします。
      */
     private void onRefresh() {
-        mCurrentPageNumber = 0;
-        mUserListAdapter.clear();
-
-        loadUserList();
+        mPaginator.setLoading(true);
+        // 行の位置が変わるため、先読みをやり直す
+        mAvatarPrefetcher.cancel();
+        mPageLoader.refresh();
     }
 
     /**
-     * リストの最下部到達イベントをハンドリングします。
-     *
-     * @param ignore {@link RecyclerViewScrollEvent}
+     * リストの最下部接近イベントをハンドリングします。
      */
-    private void onReachBottom(@SuppressWarnings("unused") final RecyclerViewScrollEvent ignore) {
+    private void onReachBottom() {
         loadUserList();
     }
 
     /**
      * データのロード完了イベントをハンドリングします。
      *
-     * @param data {@link RandomUserResponse}
+     * @param e {@link Event.PageLoaded}
      */
-    private void onDataLoaded(final RandomUserResponse data) {
-        // プログレスを停止
-        ProgressDialogFragment.dismiss(getFragmentManager());
+    private void onDataLoaded(final Event.PageLoaded e) {
+        // 次ページのロード要求を再開
+        mPaginator.setLoading(false);
         // refresh layoutのくるくるを停止
         mRefreshLayout.setRefreshing(false);
-        // アダプタへデータを追加
-        mUserListAdapter.addItem(data.results);
+        // アダプタへデータを反映
+        mUserListAdapter.setPage(e.data.getPage(), e.data.results, e.reset,
+                () -> mEmptyText.setVisibility(mUserListAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE));
+    }
 
-        mEmptyText.setVisibility(mUserListAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    /**
+     * 行のプロフィール画像URLを取得します。
+     *
+     * @param position 行の位置
+     * @return 画像URL(画像がない場合はnull)
+     */
+    private String getAvatarUrl(final int position) {
+        if (position < 0 || position >= mUserListAdapter.getItemCount()) {
+            return null;
+        }
+        return AvatarLoader.selectUrl(mUserListAdapter.getItem(position).getPicture(),
+                getResources().getDimensionPixelSize(R.dimen.user_list_avatar_size));
     }
 
     /////////////////////////////////////////////////////////////////////////////////////
@@ -314,16 +333,12 @@ public class UserListFragment extends Fragment {
     /////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * ユーザーリストをロードします。
+     * ユーザーリストの次のページをロードします。ロード中の場合は何もしません。
      */
     private void loadUserList() {
-        mCurrentPageNumber = mCurrentPageNumber + 1;
-
-        RandomUserApi.get().list(mCurrentPageNumber)
-                .onErrorReturnItem(new RandomUserResponse())
-                .subscribeOn(Schedulers.from(ChatApplication.getInstance().getThreadPoolExecutor()))
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(mDataLoadedNotification::onNext);
+        if (mPageLoader.loadNext()) {
+            mPaginator.setLoading(true);
+        }
     }
 
     /////////////////////////////////////////////////////////////////////////////////////
@@ -343,6 +358,8 @@ public class UserListFragment extends Fragment {
 
         private RandomUserResponse.User mUser;
 
+        private final int mPictureSize;
+
         /**
          * コンストラクタ
          */
@@ -350,6 +367,7 @@ public class UserListFragment extends Fragment {
             super(itemView);
 
             mPicture = itemView.findViewById(R.id.image_picture);
+            mPictureSize = itemView.getResources().getDimensionPixelSize(R.dimen.user_list_avatar_size);
             mName = itemView.findViewById(R.id.text_name);
             mEmail = itemView.findViewById(R.id.text_email);
 
@@ -381,7 +399,7 @@ public class UserListFragment extends Fragment {
             ViewCompat.setTransitionName(mPicture, user.getFullName());
 
             // 画像
-            Picasso.with(ChatApplication.getInstance()).load(user.getPicture().getLarge()).into(mPicture);
+            AvatarLoader.load(user.getPicture(), mPictureSize).into(mPicture);
             // 名前
             mName.setText(user.getFullName());
             // メールアドレス
@@ -402,13 +420,25 @@ public class UserListFragment extends Fragment {
      */
     private static class UserListAdapter extends RecyclerView.Adapter<UserViewHolder> {
         private final LayoutInflater mInflater;
-        private List<RandomUserResponse.User> mData = new ArrayList<>();
+        private final AsyncListDiffer<RandomUserResponse.User> mDiffer = new AsyncListDiffer<>(this, new AsyncListDiffer.ItemCallback<RandomUserResponse.User>() {
+            @Override
+            public Object getKey(RandomUserResponse.User item) {
+                return item.getEmail() != null ? item.getEmail() : item.getFullName();
+            }
+
+            @Override
+            public boolean areContentsTheSame(RandomUserResponse.User oldItem, RandomUserResponse.User newItem) {
+                return oldItem.equals(newItem);
+            }
+        });
 
         /**
          * コンストラクタ
          */
         private UserListAdapter() {
             mInflater = LayoutInflater.from(new ContextThemeWrapper(ChatApplication.getInstance(), R.style.AppTheme));
+
+            setHasStableIds(true);
         }
 
         /**
@@ -432,7 +462,15 @@ public class UserListFragment extends Fragment {
          */
         @Override
         public int getItemCount() {
-            return mData.size();
+            return mDiffer.size();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getItemId(int position) {
+            return mDiffer.getItemId(position);
         }
 
         /**
@@ -442,29 +480,40 @@ public class UserListFragment extends Fragment {
          * @return データ
          */
         private RandomUserResponse.User getItem(final int position) {
-            return mData.get(position);
+            return mDiffer.get(position);
         }
 
         /**
-         * データを追加します。
+         * ページのデータを反映します。リフレッシュ後の最初のページの場合は一覧を作り直し、表示済みのページであれば置き換え、
+         * そうでなければ末尾へ追加します。変更のあった行だけが再バインドされます。
+         * 再検証により遅れて届いた1ページ目は、表示済みの2ページ目以降を残したまま置き換えます。
          *
-         * @param data データリスト
+         * @param page        ページ番号
+         * @param data        データリスト
+         * @param reset       表示済みのページを破棄する場合true
+         * @param onCommitted 反映後に呼び出される処理
          */
-        private void addItem(final List<RandomUserResponse.User> data) {
-            final int prevSize = mData.size();
-
-            mData.addAll(data);
-
-            notifyItemRangeInserted(prevSize, data.size());
-        }
-
-        /**
-         * データをクリアします。
-         */
-        private void clear() {
-            mData.clear();
-
-            notifyDataSetChanged();
+        private void setPage(final int page, final List<RandomUserResponse.User> data, final boolean reset, final Runnable onCommitted) {
+            if (page <= 0) {
+                return;
+            }
+
+            // 差分の算出中のリストを基準にする
+            final List<RandomUserResponse.User> list = reset ? new ArrayList<>() : new ArrayList<>(mDiffer.getLatestList());
+
+            final int start = (page - 1) * RandomUserApi.PAGE_SIZE;
+            // 取得できなかったページで表示済みの行を消さない
+            if (reset || !data.isEmpty()) {
+                if (start >= list.size()) {
+                    list.addAll(data);
+                } else {
+                    // 表示済みのページを置き換える
+                    list.subList(start, Math.min(start + RandomUserApi.PAGE_SIZE, list.size())).clear();
+                    list.addAll(start, data);
+                }
+            }
+
+            mDiffer.submitList(list, onCommitted);
         }
     }
 
@@ -479,5 +528,15 @@ public class UserListFragment extends Fragment {
         private static class SelectUser {
             private final UserViewHolder viewHolder;
         }
+
+        /**
+         * ページロード完了イベント
+         */
+        @AllArgsConstructor
+        private static class PageLoaded {
+            private final RandomUserResponse data;
+            // 表示済みのページを破棄する場合true(リフレッシュ後の最初の通知)
+            private final boolean reset;
+        }
     }
 }
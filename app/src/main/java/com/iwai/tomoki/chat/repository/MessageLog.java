@@ -0,0 +1,315 @@
+package com.iwai.tomoki.chat.repository;
+
+import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
+import com.iwai.tomoki.chat.app.ChatApplication;
+import com.iwai.tomoki.chat.entity.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * 会話1件分のメッセージを追記型のバイナリログとして保存するクラス
+ * <p>
+ * メッセージ本体はログファイル(.log)に、各メッセージの開始位置はインデックスファイル(.idx)に追記します。
+ * インデックスを参照して必要な範囲だけをメモリマップで読み込むため、会話が長くなっても末尾のN件を即座に取得できます。
+ * <p>
+ * ログのレコード形式: [本文長(4byte)][メッセージ種別(1byte)][投稿日時(8byte)][本文(UTF-8)]
+ * インデックスのレコード形式: [ログ上の開始位置(8byte)]
+ * <p>
+ * 追記したメッセージは{@link MessageSearchIndex}にも登録します。
+ * <p>
+ * 同じ会話のログは参照カウント付きで1つのインスタンスを共有し、ファイルへの書き込みを1箇所に限定します。
+ * ログの取得・解放・読み書きは全て{@link Schedulers#single()}上で行ってください。
+ */
+public class MessageLog {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 保存先ディレクトリ名
+    private static final String DIR_NAME = "chat";
+    // レコードヘッダーサイズ
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+    // インデックスのレコードサイズ
+    private static final int INDEX_RECORD_SIZE = 8;
+
+    // 開いている会話のログ(Schedulers.single()上でのみ参照する)
+    private static final Map<String, MessageLog> mOpenLogs = new HashMap<>();
+
+    private final String mConversationId;
+    private final RandomAccessFile mLog;
+    private final RandomAccessFile mIndex;
+
+    // メッセージ件数
+    private int mSize;
+    // ログ終端位置
+    private long mEnd;
+
+    // 参照数
+    private int mRefCount;
+
+    /**
+     * 会話のログを取得します。既に開いている場合は同じインスタンスを共有します。
+     * 利用を終えたら{@link #release()}を呼び出してください。
+     *
+     * @param conversationId 会話ID
+     * @return {@link Schedulers#single()}上で{@link MessageLog}を通知する{@link Single}
+     */
+    public static Single<MessageLog> acquire(final String conversationId) {
+        return Single.fromCallable(() -> {
+            MessageLog log = mOpenLogs.get(conversationId);
+            if (log == null) {
+                log = open(conversationId);
+                mOpenLogs.put(conversationId, log);
+            }
+            log.mRefCount++;
+            return log;
+        }).subscribeOn(Schedulers.single());
+    }
+
+    /**
+     * ログの参照を解放します。参照がなくなった時点でファイルを閉じます。
+     * {@link Schedulers#single()}上で実行するため、先に要求された読み書きを終えてから解放されます。
+     *
+     * @return {@link Completable}
+     */
+    public Completable release() {
+        return Completable.fromAction(() -> {
+            if (--mRefCount > 0) {
+                return;
+            }
+            mOpenLogs.remove(mConversationId);
+            close();
+        }).subscribeOn(Schedulers.single());
+    }
+
+    /**
+     * 会話のログを開きます。
+     *
+     * @param conversationId 会話ID
+     * @return {@link MessageLog}
+     * @throws IOException 入出力エラー
+     */
+    private static MessageLog open(final String conversationId) throws IOException {
+        final File dir = new File(ChatApplication.getInstance().getFilesDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir);
+        }
+
+        final String name = hash(conversationId);
+        final MessageLog log = new MessageLog(conversationId, new File(dir, name + ".log"), new File(dir, name + ".idx"));
+
+        // 索引に未登録のメッセージ(索引導入前の履歴など)を登録する
+        MessageSearchIndex.getInstance().sync(log);
+        return log;
+    }
+
+    /**
+     * ユーザーとの会話IDを取得します。
+     *
+     * @param user {@link RandomUserResponse.User}
+     * @return 会話ID
+     */
+    public static String conversationId(final RandomUserResponse.User user) {
+        return user.getEmail() != null ? user.getEmail() : user.getFullName();
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param conversationId 会話ID
+     * @param log            ログファイル
+     * @param index          インデックスファイル
+     * @throws IOException 入出力エラー
+     */
+    private MessageLog(final String conversationId, final File log, final File index) throws IOException {
+        mConversationId = conversationId;
+        mLog = new RandomAccessFile(log, "rw");
+        mIndex = new RandomAccessFile(index, "rw");
+
+        recover();
+    }
+
+    /**
+     * 書き込み途中で終了した場合の不完全なレコードを破棄します。
+     *
+     * @throws IOException 入出力エラー
+     */
+    private void recover() throws IOException {
+        int size = (int) (mIndex.length() / INDEX_RECORD_SIZE);
+        long end = 0;
+
+        while (size > 0) {
+            mIndex.seek((long) (size - 1) * INDEX_RECORD_SIZE);
+            final long offset = mIndex.readLong();
+            if (offset + RECORD_HEADER_SIZE <= mLog.length()) {
+                mLog.seek(offset);
+                final long recordEnd = offset + RECORD_HEADER_SIZE + mLog.readInt();
+                if (recordEnd <= mLog.length()) {
+                    end = recordEnd;
+                    break;
+                }
+            }
+            size--;
+        }
+
+        mSize = size;
+        mEnd = end;
+        mIndex.setLength((long) size * INDEX_RECORD_SIZE);
+        mLog.setLength(end);
+    }
+
+    /**
+     * 会話IDを取得します。
+     *
+     * @return 会話ID
+     */
+    public String getConversationId() {
+        return mConversationId;
+    }
+
+    /**
+     * メッセージ件数を取得します。
+     *
+     * @return メッセージ件数
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * メッセージを追記します。
+     *
+     * @param message {@link Message}
+     * @return 追記したメッセージのインデックス
+     * @throws IOException 入出力エラー
+     */
+    public synchronized int append(final Message message) throws IOException {
+        final byte[] body = message.getBody() == null ? new byte[0] : message.getBody().getBytes(UTF_8);
+        final long postDate = message.getPostDate() == null ? System.currentTimeMillis() : message.getPostDate().getTime();
+
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+        record.putInt(body.length);
+        record.put((byte) message.getType());
+        record.putLong(postDate);
+        record.put(body);
+
+        // ログを書き終えてからインデックスを追記する
+        mLog.seek(mEnd);
+        mLog.write(record.array());
+
+        mIndex.seek((long) mSize * INDEX_RECORD_SIZE);
+        mIndex.writeLong(mEnd);
+
+        mEnd += record.capacity();
+        final int position = mSize++;
+
+        // 追記は完了しているため、索引の更新に失敗しても追記は失敗させない(次回開いた時に同期する)
+        try {
+            MessageSearchIndex.getInstance().add(mConversationId, position, message);
+        } catch (IOException | IllegalStateException e) {
+            Timber.e(e);
+        }
+        return position;
+    }
+
+    /**
+     * 指定範囲のメッセージを読み込みます。
+     *
+     * @param from 開始インデックス(含む)
+     * @param to   終了インデックス(含まない)
+     * @return メッセージリスト
+     * @throws IOException 入出力エラー
+     */
+    public synchronized List<Message> read(final int from, final int to) throws IOException {
+        final int start = Math.max(0, from);
+        final int end = Math.min(mSize, to);
+        final List<Message> messages = new ArrayList<>(Math.max(0, end - start));
+        if (start >= end) {
+            return messages;
+        }
+
+        final long startOffset = offsetOf(start);
+        final long endOffset = end == mSize ? mEnd : offsetOf(end);
+
+        final MappedByteBuffer buffer = mLog.getChannel().map(FileChannel.MapMode.READ_ONLY, startOffset, endOffset - startOffset);
+        for (int i = start; i < end; i++) {
+            final int length = buffer.getInt();
+            final int type = buffer.get();
+            final long postDate = buffer.getLong();
+            final byte[] body = new byte[length];
+            buffer.get(body);
+
+            //noinspection WrongConstant
+            messages.add(new Message(type, new String(body, UTF_8), new Date(postDate)));
+        }
+        return messages;
+    }
+
+    /**
+     * 末尾のメッセージを読み込みます。
+     *
+     * @param count 件数
+     * @return メッセージリスト(古い順)
+     * @throws IOException 入出力エラー
+     */
+    public synchronized List<Message> tail(final int count) throws IOException {
+        return read(mSize - count, mSize);
+    }
+
+    /**
+     * ファイルを閉じます。
+     *
+     * @throws IOException 入出力エラー
+     */
+    private synchronized void close() throws IOException {
+        mLog.close();
+        mIndex.close();
+    }
+
+    /**
+     * メッセージのログ上の開始位置を取得します。
+     *
+     * @param position インデックス
+     * @return 開始位置
+     * @throws IOException 入出力エラー
+     */
+    private long offsetOf(final int position) throws IOException {
+        mIndex.seek((long) position * INDEX_RECORD_SIZE);
+        return mIndex.readLong();
+    }
+
+    /**
+     * 会話IDをファイル名に変換します。
+     *
+     * @param conversationId 会話ID
+     * @return ファイル名
+     */
+    private static String hash(final String conversationId) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(conversationId.getBytes(UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported.", e);
+        }
+    }
+}
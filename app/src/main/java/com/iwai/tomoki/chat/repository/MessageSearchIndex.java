@@ -0,0 +1,457 @@
+package com.iwai.tomoki.chat.repository;
+
+import android.util.SparseIntArray;
+
+import com.iwai.tomoki.chat.app.ChatApplication;
+import com.iwai.tomoki.chat.entity.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 全ての会話のメッセージ本文を対象とした転置インデックス
+ * <p>
+ * 日本語は空白で単語を区切れないため、本文を1文字(unigram)と連続する2文字(bi-gram)に分割して索引語とします。
+ * 英数字・記号以外の文字(空白・句読点など)は区切りとして扱い、全角英数字は半角の小文字に正規化します。
+ * 検索時はクエリの索引語を全て含むメッセージを、索引語ごとのメッセージ一覧の積集合として求めるため、
+ * メッセージ本文を走査しません。索引語の出現位置は保持しないため、結果は索引語を全て含むメッセージ(候補)になります。
+ * <p>
+ * 索引は{@link MessageLog}への追記と同時に更新され、追記型のファイルに保存されます。
+ * 起動時はファイルに保存済みの索引語を読み込むだけで、メッセージ本文の再解析は行いません。
+ * {@link MessageLog}が不完全なレコードを破棄して索引済みの件数より短くなった場合は、
+ * 切り詰めレコードを追記して、ログに残っていない位置の文書を検索対象から外します。
+ * <p>
+ * レコード形式: [レコード長(4byte)][レコード種別(1byte)][内容]
+ * 会話レコードの内容: [会話ID(UTF-8)]
+ * メッセージレコードの内容: [会話の序数(4byte)][メッセージ位置(4byte)][索引語数(4byte)][索引語(4byte)]...
+ * 切り詰めレコードの内容: [会話の序数(4byte)][メッセージ件数(4byte)]
+ */
+public class MessageSearchIndex {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 保存先ディレクトリ名
+    private static final String DIR_NAME = "chat";
+    // ファイル名
+    private static final String FILE_NAME = "search.idx";
+    // レコードヘッダーサイズ
+    private static final int RECORD_HEADER_SIZE = 4 + 1;
+    // レコード種別: 会話
+    private static final byte TYPE_CONVERSATION = 0;
+    // レコード種別: メッセージ
+    private static final byte TYPE_MESSAGE = 1;
+    // レコード種別: 切り詰め
+    private static final byte TYPE_TRUNCATE = 2;
+    // 削除済み文書のメッセージ位置
+    private static final int REMOVED = -1;
+    // 索引済みメッセージの読み込み単位
+    private static final int SYNC_CHUNK_SIZE = 256;
+
+    private static MessageSearchIndex mInstance;
+
+    private final RandomAccessFile mFile;
+    // ファイル終端位置
+    private long mEnd;
+
+    // 会話ID(序数順)
+    private final List<String> mConversations = new ArrayList<>();
+    // 会話ID → 序数
+    private final Map<String, Integer> mOrdinals = new HashMap<>();
+    // 会話の序数 → 索引済みメッセージ件数
+    private final SparseIntArray mIndexedCounts = new SparseIntArray();
+
+    // 文書(索引済みメッセージ)ごとの会話の序数とメッセージ位置。文書IDは索引順の連番(削除済みの位置はREMOVED)
+    private int[] mDocConversations = new int[256];
+    private int[] mDocPositions = new int[256];
+    private int mDocCount;
+
+    // 索引語 → 文書IDリスト(昇順)
+    private final Map<Integer, Postings> mPostings = new HashMap<>();
+
+    /**
+     * インスタンスを取得します。初回はファイルを読み込むため、mainスレッドから呼び出さないでください。
+     *
+     * @return {@link MessageSearchIndex}
+     */
+    public static synchronized MessageSearchIndex getInstance() {
+        if (mInstance == null) {
+            final File dir = new File(ChatApplication.getInstance().getFilesDir(), DIR_NAME);
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + dir);
+                }
+                mInstance = new MessageSearchIndex(new File(dir, FILE_NAME));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open search index.", e);
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param file 保存先ファイル
+     * @throws IOException 入出力エラー
+     */
+    private MessageSearchIndex(final File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+
+        load();
+    }
+
+    /**
+     * 保存済みの索引を読み込みます。書き込み途中で終了した場合の不完全なレコードは破棄します。
+     *
+     * @throws IOException 入出力エラー
+     */
+    private void load() throws IOException {
+        final long length = mFile.length();
+        final MappedByteBuffer buffer = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+        int pos = 0;
+        while (pos + RECORD_HEADER_SIZE <= length) {
+            final int recordLength = buffer.getInt(pos);
+            if (recordLength < 0 || pos + RECORD_HEADER_SIZE + recordLength > length) {
+                break;
+            }
+
+            buffer.position(pos + RECORD_HEADER_SIZE);
+            final byte type = buffer.get(pos + 4);
+            if (type == TYPE_CONVERSATION) {
+                final byte[] id = new byte[recordLength];
+                buffer.get(id);
+                addConversation(new String(id, UTF_8));
+            } else if (type == TYPE_MESSAGE) {
+                final int conversation = buffer.getInt();
+                final int position = buffer.getInt();
+                final int[] terms = new int[buffer.getInt()];
+                for (int i = 0; i < terms.length; i++) {
+                    terms[i] = buffer.getInt();
+                }
+                addDocument(conversation, position, terms);
+            } else if (type == TYPE_TRUNCATE) {
+                final int conversation = buffer.getInt();
+                truncate(conversation, buffer.getInt());
+            } else {
+                break;
+            }
+
+            pos += RECORD_HEADER_SIZE + recordLength;
+        }
+
+        mEnd = pos;
+        mFile.setLength(pos);
+    }
+
+    /**
+     * メッセージを索引に追加します。索引済みの位置のメッセージは無視します。
+     *
+     * @param conversationId 会話ID
+     * @param position       会話内のメッセージ位置
+     * @param message        {@link Message}
+     * @throws IOException 入出力エラー
+     */
+    public synchronized void add(final String conversationId, final int position, final Message message) throws IOException {
+        Integer conversation = mOrdinals.get(conversationId);
+        if (conversation == null) {
+            final byte[] id = conversationId.getBytes(UTF_8);
+            write(ByteBuffer.allocate(RECORD_HEADER_SIZE + id.length)
+                    .putInt(id.length)
+                    .put(TYPE_CONVERSATION)
+                    .put(id));
+            conversation = addConversation(conversationId);
+        }
+        if (position < mIndexedCounts.get(conversation)) {
+            return;
+        }
+
+        final int[] terms = tokenize(message.getBody(), true);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + (3 + terms.length) * 4)
+                .putInt((3 + terms.length) * 4)
+                .put(TYPE_MESSAGE)
+                .putInt(conversation)
+                .putInt(position)
+                .putInt(terms.length);
+        for (int term : terms) {
+            record.putInt(term);
+        }
+        write(record);
+
+        addDocument(conversation, position, terms);
+    }
+
+    /**
+     * 会話のうち、まだ索引に追加されていないメッセージを追加します。
+     *
+     * @param log {@link MessageLog}
+     * @throws IOException 入出力エラー
+     */
+    public void sync(final MessageLog log) throws IOException {
+        final String conversationId = log.getConversationId();
+
+        // MessageLogとのロック順序が逆転しないよう、ログの読み込みはロックの外で行う
+        final int size = log.size();
+        int from;
+        synchronized (this) {
+            final Integer conversation = mOrdinals.get(conversationId);
+            from = conversation == null ? 0 : mIndexedCounts.get(conversation);
+
+            // ログが切り詰められた場合、以降の位置には別のメッセージが追記されるため索引から外す
+            if (from > size) {
+                write(ByteBuffer.allocate(RECORD_HEADER_SIZE + 8)
+                        .putInt(8)
+                        .put(TYPE_TRUNCATE)
+                        .putInt(conversation)
+                        .putInt(size));
+                truncate(conversation, size);
+                from = size;
+            }
+        }
+
+        while (from < size) {
+            final int to = Math.min(size, from + SYNC_CHUNK_SIZE);
+            final List<Message> messages = log.read(from, to);
+            for (int i = 0; i < messages.size(); i++) {
+                add(conversationId, from + i, messages.get(i));
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * クエリを含むメッセージを検索します。
+     *
+     * @param query 検索文字列
+     * @param limit 最大件数
+     * @return 検索結果(新しく索引に追加された順)
+     */
+    public synchronized List<Hit> search(final String query, final int limit) {
+        final List<Hit> hits = new ArrayList<>();
+        final int[] terms = tokenize(query, false);
+        if (terms.length == 0 || limit <= 0) {
+            return hits;
+        }
+
+        // 文書数の少ない索引語から順に絞り込む
+        final Postings[] postings = new Postings[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            postings[i] = mPostings.get(terms[i]);
+            if (postings[i] == null) {
+                return hits;
+            }
+        }
+        Arrays.sort(postings, (a, b) -> a.mSize - b.mSize);
+
+        final Postings smallest = postings[0];
+        for (int i = smallest.mSize - 1; i >= 0 && hits.size() < limit; i--) {
+            final int doc = smallest.mIds[i];
+            if (mDocPositions[doc] == REMOVED) {
+                continue;
+            }
+
+            boolean matched = true;
+            for (int j = 1; j < postings.length && matched; j++) {
+                matched = postings[j].contains(doc);
+            }
+            if (matched) {
+                hits.add(new Hit(mConversations.get(mDocConversations[doc]), mDocPositions[doc]));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 会話を追加します。
+     *
+     * @param conversationId 会話ID
+     * @return 会話の序数
+     */
+    private int addConversation(final String conversationId) {
+        final int conversation = mConversations.size();
+        mConversations.add(conversationId);
+        mOrdinals.put(conversationId, conversation);
+        return conversation;
+    }
+
+    /**
+     * 文書をメモリ上の索引に追加します。
+     *
+     * @param conversation 会話の序数
+     * @param position     会話内のメッセージ位置
+     * @param terms        索引語(重複なし)
+     */
+    private void addDocument(final int conversation, final int position, final int[] terms) {
+        if (mDocCount == mDocConversations.length) {
+            mDocConversations = Arrays.copyOf(mDocConversations, mDocCount * 2);
+            mDocPositions = Arrays.copyOf(mDocPositions, mDocCount * 2);
+        }
+
+        final int doc = mDocCount++;
+        mDocConversations[doc] = conversation;
+        mDocPositions[doc] = position;
+        mIndexedCounts.put(conversation, Math.max(mIndexedCounts.get(conversation), position + 1));
+
+        for (int term : terms) {
+            Postings postings = mPostings.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(term, postings);
+            }
+            postings.add(doc);
+        }
+    }
+
+    /**
+     * 会話のうち、指定件数以降の位置の文書を削除します。
+     * <p>
+     * 切り詰めはまれなため、文書IDリストからは取り除かず、検索時に読み飛ばします。
+     *
+     * @param conversation 会話の序数
+     * @param size         残すメッセージ件数
+     */
+    private void truncate(final int conversation, final int size) {
+        for (int doc = 0; doc < mDocCount; doc++) {
+            if (mDocConversations[doc] == conversation && mDocPositions[doc] >= size) {
+                mDocPositions[doc] = REMOVED;
+            }
+        }
+        mIndexedCounts.put(conversation, size);
+    }
+
+    /**
+     * レコードをファイルへ追記します。
+     *
+     * @param record レコード
+     * @throws IOException 入出力エラー
+     */
+    private void write(final ByteBuffer record) throws IOException {
+        mFile.seek(mEnd);
+        mFile.write(record.array());
+        mEnd += record.capacity();
+    }
+
+    /**
+     * 文字列を索引語に分割します。
+     * <p>
+     * 索引語は1文字の場合は文字コード、2文字の場合は(1文字目 &lt;&lt; 16 | 2文字目)です。
+     *
+     * @param text     文字列
+     * @param document 文書の場合true(1文字と2文字の両方を返却)、クエリの場合false(2文字以上の語は2文字のみ返却)
+     * @return 索引語(昇順・重複なし)
+     */
+    private static int[] tokenize(final String text, final boolean document) {
+        if (text == null || text.isEmpty()) {
+            return new int[0];
+        }
+
+        int[] terms = new int[text.length() * 2];
+        int count = 0;
+        int runLength = 0;
+        char prev = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            final char c = i < text.length() ? normalize(text.charAt(i)) : 0;
+            if (c != 0 && Character.isLetterOrDigit(c)) {
+                if (document) {
+                    terms[count++] = c;
+                }
+                if (runLength > 0) {
+                    terms[count++] = prev << 16 | c;
+                }
+                runLength++;
+                prev = c;
+                continue;
+            }
+
+            // 1文字だけの語はクエリでも1文字で検索する
+            if (!document && runLength == 1) {
+                terms[count++] = prev;
+            }
+            runLength = 0;
+        }
+
+        terms = Arrays.copyOf(terms, count);
+        Arrays.sort(terms);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || terms[unique - 1] != terms[i]) {
+                terms[unique++] = terms[i];
+            }
+        }
+        return Arrays.copyOf(terms, unique);
+    }
+
+    /**
+     * 文字を正規化します。(全角英数字を半角に、英字を小文字に変換)
+     *
+     * @param c 文字
+     * @return 正規化後の文字
+     */
+    private static char normalize(char c) {
+        if (c >= '！' && c <= '～') {
+            c = (char) (c - 0xFEE0);
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * 索引語ごとの文書IDリスト
+     */
+    private static class Postings {
+        private int[] mIds = new int[4];
+        private int mSize;
+
+        /**
+         * 文書IDを追加します。文書IDは昇順で追加されます。
+         *
+         * @param doc 文書ID
+         */
+        private void add(final int doc) {
+            if (mSize > 0 && mIds[mSize - 1] == doc) {
+                return;
+            }
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = doc;
+        }
+
+        /**
+         * 文書IDを含むかどうかを取得します。
+         *
+         * @param doc 文書ID
+         * @return 含む場合true
+         */
+        private boolean contains(final int doc) {
+            return Arrays.binarySearch(mIds, 0, mSize, doc) >= 0;
+        }
+    }
+
+    /**
+     * 検索結果
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Hit {
+        /**
+         * 会話ID
+         */
+        private final String conversationId;
+        /**
+         * 会話内のメッセージ位置({@link MessageLog#read(int, int)}のインデックス)
+         */
+        private final int position;
+    }
+}
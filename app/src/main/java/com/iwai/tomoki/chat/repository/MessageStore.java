@@ -0,0 +1,464 @@
+package com.iwai.tomoki.chat.repository;
+
+import com.iwai.tomoki.chat.entity.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * メッセージを列ごとのプリミティブ配列で保持するクラス
+ * <p>
+ * {@link Message}を1件ずつ保持すると、メッセージごとに{@link Message}・{@link Date}・{@link String}と
+ * その文字配列のオブジェクトが必要になります。このクラスは投稿日時を{@code long[]}、種別を{@code byte[]}、
+ * プロフィール画像URLを会話内で共有する文字列への参照({@code byte[]})として保持し、本文は1つの文字配列(アリーナ)に連結します。
+ * 削除された本文はアリーナ上に残り、不要な領域が有効な領域を上回った時点で詰め直します。
+ * <p>
+ * 参照用に{@link MessageView}を1つだけ使い回すため、{@link #get(int)}の戻り値は次の呼び出しまでしか有効ではありません。
+ * スレッドセーフではありません。
+ * <p>
+ * アリーナへ書き込んだ本文は以降書き換えません(追記は末尾へ行い、詰め直し・拡張・全削除では新しい配列を使用します)。
+ * そのため{@link MessageView#getBodyText()}で取得した本文は、コピーせずに他のスレッドへ渡すことができます。
+ */
+public class MessageStore {
+    // 初期容量
+    private static final int INITIAL_CAPACITY = 16;
+    // アリーナの初期サイズ
+    private static final int INITIAL_ARENA_SIZE = 1024;
+    // プロフィール画像URLなし
+    private static final byte NO_PROFILE = -1;
+
+    // 列
+    private byte[] mTypes = new byte[INITIAL_CAPACITY];
+    private long[] mPostDates = new long[INITIAL_CAPACITY];
+    private byte[] mProfiles = new byte[INITIAL_CAPACITY];
+    private int[] mBodyOffsets = new int[INITIAL_CAPACITY];
+    private int[] mBodyLengths = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    // 本文のアリーナ
+    private char[] mArena = new char[INITIAL_ARENA_SIZE];
+    private int mArenaEnd;
+    // アリーナ上の有効な文字数
+    private int mLiveChars;
+
+    // 会話内のプロフィール画像URL
+    private final List<String> mProfileUrls = new ArrayList<>();
+    // メッセージ種別ごとの既定のプロフィール画像URL
+    private final byte[] mDefaultProfiles = {NO_PROFILE, NO_PROFILE};
+
+    private final MessageView mView = new MessageView();
+
+    /**
+     * メッセージ種別ごとの既定のプロフィール画像URLを設定します。以降に追加するメッセージに適用されます。
+     *
+     * @param type メッセージ種別
+     * @param url  プロフィール画像URL
+     */
+    public void setProfileUrl(@Message.MessageType final int type, final String url) {
+        mDefaultProfiles[type] = intern(url);
+    }
+
+    /**
+     * メッセージ数を取得します。
+     *
+     * @return メッセージ数
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * メッセージ種別を取得します。
+     *
+     * @param position 位置
+     * @return メッセージ種別
+     */
+    @Message.MessageType
+    public int getType(final int position) {
+        //noinspection WrongConstant
+        return mTypes[checkIndex(position)];
+    }
+
+    /**
+     * メッセージを参照します。戻り値は次の呼び出しまでしか有効ではありません。
+     *
+     * @param position 位置
+     * @return {@link MessageView}
+     */
+    public MessageView get(final int position) {
+        mView.mPosition = checkIndex(position);
+        return mView;
+    }
+
+    /**
+     * メッセージを挿入します。
+     *
+     * @param position 挿入位置
+     * @param message  {@link Message}
+     */
+    public void add(final int position, final Message message) {
+        addAll(position, Collections.singletonList(message));
+    }
+
+    /**
+     * メッセージを挿入します。
+     *
+     * @param position 挿入位置
+     * @param messages {@link Message}リスト
+     */
+    public void addAll(final int position, final List<Message> messages) {
+        if (position < 0 || position > mSize) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+        }
+
+        final int count = messages.size();
+        int chars = 0;
+        for (int i = 0; i < count; i++) {
+            chars += bodyOf(messages.get(i)).length();
+        }
+
+        // 行を移動する前にアリーナを確保する(詰め直しは全ての行が揃っている状態で行う)
+        ensureArenaCapacity(chars);
+        ensureCapacity(mSize + count);
+        shift(position, position + count, mSize - position);
+
+        for (int i = 0; i < count; i++) {
+            final Message message = messages.get(i);
+            final int row = position + i;
+            final String body = bodyOf(message);
+
+            mTypes[row] = (byte) message.getType();
+            mPostDates[row] = message.getPostDate() == null ? 0 : message.getPostDate().getTime();
+            mProfiles[row] = message.getProfileUrl() != null ? intern(message.getProfileUrl()) : mDefaultProfiles[message.getType()];
+            mBodyOffsets[row] = appendBody(body);
+            mBodyLengths[row] = body.length();
+        }
+        mSize += count;
+    }
+
+    /**
+     * メッセージを削除します。
+     *
+     * @param position 削除位置
+     * @param count    件数
+     */
+    public void remove(final int position, final int count) {
+        if (position < 0 || count < 0 || position + count > mSize) {
+            throw new IndexOutOfBoundsException("position: " + position + ", count: " + count + ", size: " + mSize);
+        }
+
+        for (int i = position; i < position + count; i++) {
+            mLiveChars -= mBodyLengths[i];
+        }
+        shift(position + count, position, mSize - position - count);
+        mSize -= count;
+
+        if (mArenaEnd > INITIAL_ARENA_SIZE && mArenaEnd > mLiveChars * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * 全てのメッセージを削除します。
+     */
+    public void clear() {
+        mSize = 0;
+        // 取得済みのBodyTextが参照している本文を上書きしないよう、アリーナは作り直す
+        mArena = new char[INITIAL_ARENA_SIZE];
+        mArenaEnd = 0;
+        mLiveChars = 0;
+    }
+
+    /**
+     * 位置が範囲内であることを確認します。
+     *
+     * @param position 位置
+     * @return 位置
+     */
+    private int checkIndex(final int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+        }
+        return position;
+    }
+
+    /**
+     * 列の容量を確保します。
+     *
+     * @param capacity 必要な容量
+     */
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= mTypes.length) {
+            return;
+        }
+
+        final int newCapacity = Math.max(capacity, mTypes.length * 2);
+        mTypes = Arrays.copyOf(mTypes, newCapacity);
+        mPostDates = Arrays.copyOf(mPostDates, newCapacity);
+        mProfiles = Arrays.copyOf(mProfiles, newCapacity);
+        mBodyOffsets = Arrays.copyOf(mBodyOffsets, newCapacity);
+        mBodyLengths = Arrays.copyOf(mBodyLengths, newCapacity);
+    }
+
+    /**
+     * 全ての列の行を移動します。
+     *
+     * @param from   移動元
+     * @param to     移動先
+     * @param length 行数
+     */
+    private void shift(final int from, final int to, final int length) {
+        if (length <= 0 || from == to) {
+            return;
+        }
+
+        System.arraycopy(mTypes, from, mTypes, to, length);
+        System.arraycopy(mPostDates, from, mPostDates, to, length);
+        System.arraycopy(mProfiles, from, mProfiles, to, length);
+        System.arraycopy(mBodyOffsets, from, mBodyOffsets, to, length);
+        System.arraycopy(mBodyLengths, from, mBodyLengths, to, length);
+    }
+
+    /**
+     * アリーナの空き容量を確保します。
+     *
+     * @param length 必要な文字数
+     */
+    private void ensureArenaCapacity(final int length) {
+        if (mArenaEnd + length <= mArena.length) {
+            return;
+        }
+
+        compact();
+        if (mArenaEnd + length > mArena.length) {
+            mArena = Arrays.copyOf(mArena, Math.max(mArenaEnd + length, mArena.length * 2));
+        }
+    }
+
+    /**
+     * 本文をアリーナへ追記します。事前に{@link #ensureArenaCapacity(int)}で容量を確保してください。
+     *
+     * @param body 本文
+     * @return アリーナ上の開始位置
+     */
+    private int appendBody(final String body) {
+        final int length = body.length();
+        final int offset = mArenaEnd;
+        body.getChars(0, length, mArena, offset);
+        mArenaEnd += length;
+        mLiveChars += length;
+        return offset;
+    }
+
+    /**
+     * 本文を取得します。
+     *
+     * @param message {@link Message}
+     * @return 本文
+     */
+    private static String bodyOf(final Message message) {
+        return message.getBody() == null ? "" : message.getBody();
+    }
+
+    /**
+     * 有効な本文だけをアリーナの先頭から詰め直します。
+     */
+    private void compact() {
+        if (mArenaEnd == mLiveChars) {
+            return;
+        }
+
+        final char[] arena = new char[Math.max(INITIAL_ARENA_SIZE, mLiveChars * 2)];
+        int end = 0;
+        for (int i = 0; i < mSize; i++) {
+            System.arraycopy(mArena, mBodyOffsets[i], arena, end, mBodyLengths[i]);
+            mBodyOffsets[i] = end;
+            end += mBodyLengths[i];
+        }
+
+        mArena = arena;
+        mArenaEnd = end;
+    }
+
+    /**
+     * プロフィール画像URLを会話内の共有文字列として登録します。
+     *
+     * @param url プロフィール画像URL
+     * @return 参照
+     */
+    private byte intern(final String url) {
+        if (url == null) {
+            return NO_PROFILE;
+        }
+
+        int index = mProfileUrls.indexOf(url);
+        if (index < 0) {
+            if (mProfileUrls.size() > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Too many profile urls in a conversation.");
+            }
+            index = mProfileUrls.size();
+            mProfileUrls.add(url);
+        }
+        return (byte) index;
+    }
+
+    /**
+     * {@link MessageStore}の1行を参照するフライウェイト
+     * <p>
+     * 本文は{@link android.widget.TextView#setText(char[], int, int)}で文字列を生成せずに表示できるよう、
+     * アリーナと範囲で公開します。
+     */
+    public class MessageView {
+        private int mPosition;
+
+        /**
+         * メッセージ種別を取得します。
+         *
+         * @return メッセージ種別
+         */
+        @Message.MessageType
+        public int getType() {
+            //noinspection WrongConstant
+            return mTypes[mPosition];
+        }
+
+        /**
+         * 投稿日時を取得します。
+         *
+         * @return 投稿日時(エポックミリ秒)
+         */
+        public long getPostDate() {
+            return mPostDates[mPosition];
+        }
+
+        /**
+         * プロフィール画像URLを取得します。
+         *
+         * @return プロフィール画像URL
+         */
+        public String getProfileUrl() {
+            final byte profile = mProfiles[mPosition];
+            return profile == NO_PROFILE ? null : mProfileUrls.get(profile);
+        }
+
+        /**
+         * 本文を格納している文字配列を取得します。
+         *
+         * @return 文字配列
+         */
+        public char[] getBodyChars() {
+            return mArena;
+        }
+
+        /**
+         * 本文の開始位置を取得します。
+         *
+         * @return {@link #getBodyChars()}上の開始位置
+         */
+        public int getBodyOffset() {
+            return mBodyOffsets[mPosition];
+        }
+
+        /**
+         * 本文の文字数を取得します。
+         *
+         * @return 文字数
+         */
+        public int getBodyLength() {
+            return mBodyLengths[mPosition];
+        }
+
+        /**
+         * 本文をアリーナ上の範囲を参照する{@link CharSequence}として取得します。文字列のコピーは行いません。
+         * 戻り値はこの{@link MessageView}や{@link MessageStore}が変更された後も同じ内容を返し、他のスレッドから参照できます。
+         *
+         * @return 本文
+         */
+        public CharSequence getBodyText() {
+            return new BodyText(mArena, getBodyOffset(), getBodyLength());
+        }
+
+        /**
+         * 本文を文字列として取得します。
+         *
+         * @return 本文
+         */
+        public String getBody() {
+            return new String(mArena, getBodyOffset(), getBodyLength());
+        }
+
+        /**
+         * {@link Message}に変換します。
+         *
+         * @return {@link Message}
+         */
+        public Message toMessage() {
+            final Message message = new Message(getType(), getBody(), new Date(getPostDate()));
+            message.setProfileUrl(getProfileUrl());
+            return message;
+        }
+    }
+
+    /**
+     * アリーナ上の本文の範囲を参照する{@link CharSequence}
+     */
+    private static class BodyText implements CharSequence {
+        private final char[] mChars;
+        private final int mOffset;
+        private final int mLength;
+
+        /**
+         * コンストラクタ
+         *
+         * @param chars  文字配列
+         * @param offset 開始位置
+         * @param length 文字数
+         */
+        private BodyText(final char[] chars, final int offset, final int length) {
+            mChars = chars;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= mLength) {
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+            }
+            return mChars[mOffset + index];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > mLength || start > end) {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + mLength);
+            }
+            return new BodyText(mChars, mOffset + start, end - start);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return new String(mChars, mOffset, mLength);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.iwai.tomoki.chat.repository;
+
+import android.support.annotation.MainThread;
+import android.view.Choreographer;
+
+import com.iwai.tomoki.chat.entity.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+import lombok.AllArgsConstructor;
+import timber.log.Timber;
+
+/**
+ * {@link MessageLog}に保存された会話のうち、表示位置周辺のメッセージだけをメモリ上に保持するクラス
+ * <p>
+ * 保持するメッセージ数は最大{@code maxWindowSize}件で、スクロールに合わせて古い(または新しい)ページを読み込み、
+ * 反対側のメッセージを破棄します。会話がどれだけ長くなってもメモリ使用量は一定です。
+ * ログの読み書きは全て{@link Schedulers#single()}上で順番に行い、ウィンドウの更新はmainスレッドで行います。
+ * ウィンドウ内のメッセージは{@link MessageStore}に列形式で保持します。
+ * <p>
+ * 追加されたメッセージは次のフレームの描画前({@link Choreographer}のコールバック)までまとめてからウィンドウへ反映し、
+ * 1回の範囲挿入として通知します。複数の返信が続けて届いた場合もレイアウトは1フレームにつき1回で済みます。
+ * <p>
+ * ログを開けない場合や追記に失敗した場合も、メッセージはウィンドウ末尾に追加します。
+ * 保存できなかったメッセージ以降はメモリ上にのみ保持し、破棄せず、後続のページも読み込みません。
+ */
+@MainThread
+public class PagedMessageSource {
+    /**
+     * ウィンドウの変更通知リスナー
+     */
+    public interface Listener {
+        /**
+         * メッセージが挿入された際に呼び出されます。
+         *
+         * @param position 挿入位置
+         * @param count    件数
+         */
+        void onInserted(int position, int count);
+
+        /**
+         * メッセージが削除された際に呼び出されます。
+         *
+         * @param position 削除位置
+         * @param count    件数
+         */
+        void onRemoved(int position, int count);
+    }
+
+    private final Single<MessageLog> mLog;
+    private final int mPageSize;
+    private final int mMaxWindowSize;
+
+    private Listener mListener;
+
+    // 保持しているメッセージ
+    private final MessageStore mWindow = new MessageStore();
+    // 保持しているメッセージのログ上の範囲[mStart, mEnd)
+    private int mStart;
+    private int mEnd;
+    // ログ上のメッセージ件数
+    private int mTotal;
+
+    private boolean mLoadingOlder;
+    private boolean mLoadingNewer;
+
+    // ウィンドウ末尾のうち、ログ上の範囲に含まれないメッセージ(保存できなかったもの以降)の件数
+    private int mUnsaved;
+
+    // ウィンドウ末尾へ反映待ちのメッセージ
+    private final List<Message> mPendingAppends = new ArrayList<>();
+    // 反映待ちのメッセージのうち、ログ上の範囲に含まれないもの(末尾側)の件数
+    private int mPendingUnsaved;
+    private final Choreographer.FrameCallback mFlushCallback = frameTimeNanos -> flushPendingAppends();
+    private boolean mFlushScheduled;
+
+    /**
+     * コンストラクタ
+     *
+     * @param log           会話履歴({@link MessageLog#acquire(String)}で取得したもの。{@link #close()}で解放します)
+     * @param pageSize      1度に読み込む件数
+     * @param maxWindowSize メモリ上に保持する最大件数
+     */
+    public PagedMessageSource(final Single<MessageLog> log, final int pageSize, final int maxWindowSize) {
+        mLog = log;
+        mPageSize = pageSize;
+        mMaxWindowSize = Math.max(maxWindowSize, pageSize * 2);
+    }
+
+    /**
+     * 変更通知リスナーを設定します。
+     *
+     * @param listener {@link Listener}
+     */
+    public void setListener(final Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 会話履歴の参照を解放します。追加済みのメッセージはログへ書き終えてから解放されます。
+     * 以降、ウィンドウの変更は通知しません。
+     */
+    public void close() {
+        mListener = null;
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(mFlushCallback);
+        }
+
+        // 追記はSchedulers.single()上で順番に実行されるため、ここまでに追加したメッセージは解放前に書き込まれる
+        mLog.flatMapCompletable(MessageLog::release).subscribe(() -> {
+        }, Timber::e);
+    }
+
+    /**
+     * メッセージ種別ごとの既定のプロフィール画像URLを設定します。
+     *
+     * @param type メッセージ種別
+     * @param url  プロフィール画像URL
+     */
+    public void setProfileUrl(@Message.MessageType final int type, final String url) {
+        mWindow.setProfileUrl(type, url);
+    }
+
+    /**
+     * 保持しているメッセージ数を取得します。
+     *
+     * @return メッセージ数
+     */
+    public int size() {
+        return mWindow.size();
+    }
+
+    /**
+     * メッセージ種別を取得します。
+     *
+     * @param position ウィンドウ内の位置
+     * @return メッセージ種別
+     */
+    @Message.MessageType
+    public int getType(final int position) {
+        return mWindow.getType(position);
+    }
+
+    /**
+     * メッセージのログ上のインデックスを取得します。ウィンドウが移動しても変わらないため、安定IDとして使用できます。
+     *
+     * @param position ウィンドウ内の位置
+     * @return ログ上のインデックス
+     */
+    public long getId(final int position) {
+        return mStart + position;
+    }
+
+    /**
+     * メッセージを参照します。戻り値は次の呼び出しまでしか有効ではありません。
+     *
+     * @param position ウィンドウ内の位置
+     * @return {@link MessageStore.MessageView}
+     */
+    public MessageStore.MessageView get(final int position) {
+        return mWindow.get(position);
+    }
+
+    /**
+     * 最新のページを読み込みます。
+     *
+     * @return ログ上のメッセージ件数を通知する{@link Single}
+     */
+    public Single<Integer> loadLatest() {
+        return mLog
+                .observeOn(Schedulers.single())
+                .map(log -> new Page(log.size() - mPageSize, log.tail(mPageSize), log.size()))
+                .observeOn(AndroidSchedulers.mainThread())
+                .map(page -> {
+                    // 保存済みの反映待ちのメッセージはログから読み込んだページに含まれる
+                    mPendingAppends.subList(0, mPendingAppends.size() - mPendingUnsaved).clear();
+
+                    // 保存できなかったメッセージは末尾に残す
+                    final int removed = mWindow.size() - mUnsaved;
+                    if (mUnsaved == 0) {
+                        mWindow.clear();
+                    } else {
+                        mWindow.remove(0, removed);
+                    }
+                    notifyRemoved(0, removed);
+
+                    mWindow.addAll(0, page.messages);
+                    mStart = Math.max(0, page.start);
+                    mEnd = page.total;
+                    mTotal = page.total;
+                    notifyInserted(0, page.messages.size());
+                    return page.total;
+                });
+    }
+
+    /**
+     * メッセージを会話履歴へ追加します。最新のメッセージを表示中であればウィンドウにも追加します。
+     * 保存に失敗した場合は、表示位置に関わらずウィンドウ末尾に追加します。
+     *
+     * @param message {@link Message}
+     */
+    public void add(final Message message) {
+        mLog
+                .observeOn(Schedulers.single())
+                .map(log -> {
+                    log.append(message);
+                    return log.size();
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(total -> {
+                    final boolean atEnd = mEnd + mPendingAppends.size() == mTotal;
+                    mTotal = total;
+
+                    // 保存できなかったメッセージより前に表示されないよう、以降もログ上の範囲には含めない
+                    if (mUnsaved + mPendingUnsaved > 0) {
+                        enqueue(message, true);
+                    } else if (atEnd) {
+                        enqueue(message, false);
+                    }
+                }, e -> {
+                    Timber.e(e);
+                    enqueue(message, true);
+                });
+    }
+
+    /**
+     * メッセージをウィンドウ末尾への反映待ちに追加します。
+     *
+     * @param message {@link Message}
+     * @param unsaved ログ上の範囲に含めない場合true
+     */
+    private void enqueue(final Message message, final boolean unsaved) {
+        mPendingAppends.add(message);
+        if (unsaved) {
+            mPendingUnsaved++;
+        }
+
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mFlushCallback);
+        }
+    }
+
+    /**
+     * 反映待ちのメッセージをウィンドウ末尾へ反映します。
+     */
+    private void flushPendingAppends() {
+        mFlushScheduled = false;
+        if (mPendingAppends.isEmpty()) {
+            return;
+        }
+
+        final int position = mWindow.size();
+        final int count = mPendingAppends.size();
+        mWindow.addAll(position, mPendingAppends);
+        mEnd += count - mPendingUnsaved;
+        mUnsaved += mPendingUnsaved;
+        mPendingAppends.clear();
+        mPendingUnsaved = 0;
+        notifyInserted(position, count);
+        trimStart();
+    }
+
+    /**
+     * 表示位置に応じて前後のページを読み込みます。
+     *
+     * @param firstVisible 先頭の表示位置
+     * @param lastVisible  末尾の表示位置
+     */
+    public void onScrolled(final int firstVisible, final int lastVisible) {
+        if (firstVisible >= 0 && firstVisible < mPageSize / 2) {
+            loadOlder();
+        }
+        if (lastVisible >= 0 && lastVisible >= mWindow.size() - mPageSize / 2) {
+            loadNewer();
+        }
+    }
+
+    /**
+     * ウィンドウより古いページを読み込みます。
+     */
+    public void loadOlder() {
+        if (mLoadingOlder || mStart == 0) {
+            return;
+        }
+        mLoadingOlder = true;
+
+        final int to = mStart;
+        final int from = Math.max(0, to - mPageSize);
+        mLog
+                .observeOn(Schedulers.single())
+                .map(log -> log.read(from, to))
+                .observeOn(AndroidSchedulers.mainThread())
+                .doFinally(() -> mLoadingOlder = false)
+                .subscribe(messages -> {
+                    if (mStart != to) {
+                        return;
+                    }
+                    // 末尾を破棄する可能性があるため、反映待ちのメッセージを先に反映する
+                    flushPendingAppends();
+
+                    mWindow.addAll(0, messages);
+                    mStart = from;
+                    notifyInserted(0, messages.size());
+                    trimEnd();
+                }, Timber::e);
+    }
+
+    /**
+     * ウィンドウより新しいページを読み込みます。
+     */
+    public void loadNewer() {
+        // 保存できなかったメッセージの後ろにはログのメッセージを並べられない
+        if (mLoadingNewer || mUnsaved + mPendingUnsaved > 0 || mEnd + mPendingAppends.size() >= mTotal) {
+            return;
+        }
+        mLoadingNewer = true;
+
+        final int from = mEnd;
+        final int to = Math.min(mTotal, from + mPageSize);
+        mLog
+                .observeOn(Schedulers.single())
+                .map(log -> log.read(from, to))
+                .observeOn(AndroidSchedulers.mainThread())
+                .doFinally(() -> mLoadingNewer = false)
+                .subscribe(messages -> {
+                    if (mEnd != from) {
+                        return;
+                    }
+
+                    final int position = mWindow.size();
+                    mWindow.addAll(position, messages);
+                    mEnd = from + messages.size();
+                    notifyInserted(position, messages.size());
+                    trimStart();
+                }, Timber::e);
+    }
+
+    /**
+     * 最大件数を超えた分を先頭(古い側)から破棄します。ログに保存できなかったメッセージは破棄しません。
+     */
+    private void trimStart() {
+        final int over = Math.min(mWindow.size() - mMaxWindowSize, mEnd - mStart);
+        if (over <= 0) {
+            return;
+        }
+
+        mWindow.remove(0, over);
+        mStart += over;
+        notifyRemoved(0, over);
+    }
+
+    /**
+     * 最大件数を超えた分を末尾(新しい側)から破棄します。ログに保存できなかったメッセージがある場合は破棄しません。
+     */
+    private void trimEnd() {
+        final int over = mWindow.size() - mMaxWindowSize;
+        if (over <= 0 || mUnsaved > 0) {
+            return;
+        }
+
+        final int position = mWindow.size() - over;
+        mWindow.remove(position, over);
+        mEnd -= over;
+        notifyRemoved(position, over);
+    }
+
+    /**
+     * 挿入を通知します。
+     *
+     * @param position 挿入位置
+     * @param count    件数
+     */
+    private void notifyInserted(final int position, final int count) {
+        if (mListener != null && count > 0) {
+            mListener.onInserted(position, count);
+        }
+    }
+
+    /**
+     * 削除を通知します。
+     *
+     * @param position 削除位置
+     * @param count    件数
+     */
+    private void notifyRemoved(final int position, final int count) {
+        if (mListener != null && count > 0) {
+            mListener.onRemoved(position, count);
+        }
+    }
+
+    /**
+     * ログから読み込んだページ
+     */
+    @AllArgsConstructor
+    private static class Page {
+        private final int start;
+        private final List<Message> messages;
+        private final int total;
+    }
+}
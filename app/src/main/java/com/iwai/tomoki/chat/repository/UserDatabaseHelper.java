@@ -0,0 +1,154 @@
+package com.iwai.tomoki.chat.repository;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ユーザー情報をページ単位で永続化する{@link SQLiteOpenHelper}実装クラス
+ */
+class UserDatabaseHelper extends SQLiteOpenHelper {
+    private static final String DB_NAME = "user.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE = "user";
+
+    private static final String COL_PAGE = "page";
+    private static final String COL_POSITION = "position";
+    private static final String COL_GENDER = "gender";
+    private static final String COL_FIRST_NAME = "first_name";
+    private static final String COL_LAST_NAME = "last_name";
+    private static final String COL_EMAIL = "email";
+    private static final String COL_PICTURE_LARGE = "picture_large";
+    private static final String COL_PICTURE_MEDIUM = "picture_medium";
+    private static final String COL_PICTURE_THUMBNAIL = "picture_thumbnail";
+
+    private static final String[] COLUMNS = {
+            COL_GENDER, COL_FIRST_NAME, COL_LAST_NAME, COL_EMAIL,
+            COL_PICTURE_LARGE, COL_PICTURE_MEDIUM, COL_PICTURE_THUMBNAIL
+    };
+
+    /**
+     * コンストラクタ
+     *
+     * @param context {@link Context}
+     */
+    UserDatabaseHelper(final Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_PAGE + " INTEGER NOT NULL, "
+                + COL_POSITION + " INTEGER NOT NULL, "
+                + COL_GENDER + " TEXT, "
+                + COL_FIRST_NAME + " TEXT, "
+                + COL_LAST_NAME + " TEXT, "
+                + COL_EMAIL + " TEXT, "
+                + COL_PICTURE_LARGE + " TEXT, "
+                + COL_PICTURE_MEDIUM + " TEXT, "
+                + COL_PICTURE_THUMBNAIL + " TEXT, "
+                + "PRIMARY KEY (" + COL_PAGE + ", " + COL_POSITION + "))");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // キャッシュなので作り直す
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * 指定ページのユーザーリストを読み込みます。
+     *
+     * @param page ページ番号
+     * @return ユーザーリスト(未保存の場合は空)
+     */
+    List<RandomUserResponse.User> load(final int page) {
+        final List<RandomUserResponse.User> users = new ArrayList<>();
+
+        try (Cursor c = getReadableDatabase().query(TABLE, COLUMNS, COL_PAGE + " = ?",
+                new String[]{String.valueOf(page)}, null, null, COL_POSITION)) {
+            while (c.moveToNext()) {
+                final RandomUserResponse.Name name = new RandomUserResponse.Name();
+                name.setFirst(c.getString(1));
+                name.setLast(c.getString(2));
+
+                final RandomUserResponse.Picture picture = new RandomUserResponse.Picture();
+                picture.setLarge(c.getString(4));
+                picture.setMedium(c.getString(5));
+                picture.setThumbnail(c.getString(6));
+
+                final RandomUserResponse.User user = new RandomUserResponse.User();
+                user.setGender(c.getString(0));
+                user.setName(name);
+                user.setEmail(c.getString(3));
+                user.setPicture(picture);
+
+                users.add(user);
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * 指定ページのユーザーリストを置き換えます。
+     *
+     * @param page  ページ番号
+     * @param users ユーザーリスト
+     */
+    void save(final int page, final List<RandomUserResponse.User> users) {
+        final SQLiteDatabase db = getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            db.delete(TABLE, COL_PAGE + " = ?", new String[]{String.valueOf(page)});
+
+            final ContentValues values = new ContentValues();
+            for (int i = 0; i < users.size(); i++) {
+                final RandomUserResponse.User user = users.get(i);
+                final RandomUserResponse.Name name = user.getName();
+                final RandomUserResponse.Picture picture = user.getPicture();
+
+                values.clear();
+                values.put(COL_PAGE, page);
+                values.put(COL_POSITION, i);
+                values.put(COL_GENDER, user.getGender());
+                values.put(COL_FIRST_NAME, name == null ? null : name.getFirst());
+                values.put(COL_LAST_NAME, name == null ? null : name.getLast());
+                values.put(COL_EMAIL, user.getEmail());
+                values.put(COL_PICTURE_LARGE, picture == null ? null : picture.getLarge());
+                values.put(COL_PICTURE_MEDIUM, picture == null ? null : picture.getMedium());
+                values.put(COL_PICTURE_THUMBNAIL, picture == null ? null : picture.getThumbnail());
+
+                db.insert(TABLE, null, values);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 全てのユーザー情報を削除します。
+     */
+    void clear() {
+        getWritableDatabase().delete(TABLE, null, null);
+    }
+}
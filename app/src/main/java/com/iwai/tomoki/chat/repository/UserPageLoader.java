@@ -0,0 +1,208 @@
+package com.iwai.tomoki.chat.repository;
+
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.util.SparseArray;
+
+import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
+import com.iwai.tomoki.chat.app.ChatApplication;
+
+import java.util.ArrayList;
+
+import io.reactivex.Observable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * ユーザー一覧のページロードを制御するクラス
+ * <p>
+ * 同一ページへの同時リクエストは1つにまとめ、追加ロード・リフレッシュそれぞれで同時に実行するロードは1つまでとします。
+ * 追加ロードは前のページが反映されるまで次のページを要求しないため、結果は常にページ順に通知されます。
+ * 次のページが空だった場合(通信エラーを含む)は、待ち時間を倍々に延ばしながら再要求を控えます。待ち時間はリフレッシュでリセットされます。
+ * mainスレッドからのみ呼び出してください。
+ */
+@MainThread
+public class UserPageLoader {
+    // 空のページを受け取った後、次のページを再要求するまでの最短の待ち時間(ミリ秒)
+    private static final long RETRY_BACKOFF_MIN = 1000;
+    // 空のページを受け取った後、次のページを再要求するまでの最長の待ち時間(ミリ秒)
+    private static final long RETRY_BACKOFF_MAX = 60 * 1000;
+
+    /**
+     * ページロード結果リスナー
+     */
+    public interface OnPageLoadedListener {
+        /**
+         * ページがロードされた際に呼び出されます。同一ページが再検証により複数回通知される場合があります。
+         * {@code reset}がtrueの場合はリフレッシュ後の最初の通知のため、表示済みのページを破棄してください。
+         * それ以外の場合は、表示済みのページを置き換えるか末尾へ追加してください。
+         *
+         * @param data  {@link RandomUserResponse}
+         * @param reset リフレッシュ後の最初の通知の場合true
+         */
+        void onPageLoaded(RandomUserResponse data, boolean reset);
+    }
+
+    // ロード結果リスナー
+    private final OnPageLoadedListener mListener;
+
+    // 実行中のページ毎のリクエスト
+    private final SparseArray<Observable<RandomUserResponse>> mInFlight = new SparseArray<>();
+
+    // 現在の世代で購読中のリクエスト(リフレッシュで破棄される)
+    private CompositeDisposable mSubscriptions = new CompositeDisposable();
+
+    // 最後に反映されたページ番号
+    private int mLastPage;
+
+    // 追加ロード中のページ番号(0:ロードしていない)
+    private int mAppendingPage;
+
+    // リフレッシュ中フラグ
+    private boolean mRefreshing;
+
+    // リフレッシュ後、まだ結果を通知していないかどうか
+    private boolean mResetPending;
+
+    // 次のページを再要求するまでの待ち時間(0:待たない)
+    private long mRetryBackoff;
+    // 次のページを再要求できる時刻(SystemClock.elapsedRealtime())
+    private long mRetryAt;
+
+    /**
+     * コンストラクタ
+     *
+     * @param listener {@link OnPageLoadedListener}
+     */
+    public UserPageLoader(final OnPageLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * ページを1つでもロード済みかどうかを取得します。
+     *
+     * @return ロード済みの場合true
+     */
+    public boolean hasLoaded() {
+        return mLastPage > 0;
+    }
+
+    /**
+     * ロード中かどうかを取得します。
+     *
+     * @return ロード中の場合true
+     */
+    public boolean isLoading() {
+        return mRefreshing || mAppendingPage > 0;
+    }
+
+    /**
+     * 次のページをロードします。ロード中の場合や、空のページを受け取ってから待ち時間が経過していない場合は何もしません。
+     *
+     * @return ロードを開始した場合true
+     */
+    public boolean loadNext() {
+        if (isLoading() || SystemClock.elapsedRealtime() < mRetryAt) {
+            return false;
+        }
+
+        final int page = mLastPage + 1;
+        mAppendingPage = page;
+        mSubscriptions.add(source(page).subscribe(data -> onLoaded(data, false)));
+        return true;
+    }
+
+    /**
+     * 先頭ページから再ロードします。リフレッシュ中の場合は何もしません。
+     * 実行中の追加ロードは破棄されます。
+     */
+    public void refresh() {
+        if (mRefreshing) {
+            return;
+        }
+
+        mRefreshing = true;
+        mResetPending = true;
+        mAppendingPage = 0;
+        mLastPage = 0;
+        mRetryBackoff = 0;
+        mRetryAt = 0;
+
+        // 先頭ページが実行中であれば、破棄する前に購読してリクエストを引き継ぐ
+        final Disposable d = source(1).subscribe(data -> onLoaded(data, true));
+
+        mSubscriptions.dispose();
+        mSubscriptions = new CompositeDisposable();
+        mSubscriptions.add(d);
+    }
+
+    /**
+     * 全てのロードを破棄します。
+     * リフレッシュを破棄した場合、次に通知するページはリフレッシュ後の最初の通知として扱います。
+     */
+    public void cancel() {
+        mSubscriptions.clear();
+        mRefreshing = false;
+        mAppendingPage = 0;
+    }
+
+    /**
+     * ページのロード結果を反映します。
+     *
+     * @param data    {@link RandomUserResponse}
+     * @param refresh リフレッシュによるロードの場合true
+     */
+    private void onLoaded(final RandomUserResponse data, final boolean refresh) {
+        final int page = data.getPage();
+
+        if (refresh) {
+            mRefreshing = false;
+        } else if (page == mAppendingPage) {
+            mAppendingPage = 0;
+        }
+
+        // 空のページは反映済みとしない(待ち時間の経過後に同じページを再要求する)
+        if (!data.results.isEmpty()) {
+            if (page > mLastPage) {
+                mLastPage = page;
+            }
+            mRetryBackoff = 0;
+            mRetryAt = 0;
+        } else if (page > mLastPage) {
+            mRetryBackoff = mRetryBackoff == 0 ? RETRY_BACKOFF_MIN : Math.min(mRetryBackoff * 2, RETRY_BACKOFF_MAX);
+            mRetryAt = SystemClock.elapsedRealtime() + mRetryBackoff;
+        }
+
+        // 表示済みのページを破棄するのはリフレッシュ後の最初の通知のみ(再検証による2回目以降の通知は置き換え)
+        final boolean reset = mResetPending;
+        if (reset) {
+            mResetPending = false;
+        }
+
+        mListener.onPageLoaded(data, reset);
+    }
+
+    /**
+     * ページのリクエストを取得します。同一ページのリクエストが実行中であればそれを共有します。
+     *
+     * @param page ページ番号
+     * @return {@link Observable}
+     */
+    private Observable<RandomUserResponse> source(final int page) {
+        Observable<RandomUserResponse> source = mInFlight.get(page);
+        if (source == null) {
+            source = UserRepository.getInstance().list(page)
+                    .onErrorReturnItem(new RandomUserResponse(page, new ArrayList<>()))
+                    .subscribeOn(Schedulers.from(ChatApplication.getInstance().getThreadPoolExecutor()))
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .doFinally(() -> mInFlight.remove(page))
+                    // 後から購読した場合もキャッシュ済みページを受け取れるようにする
+                    .replay()
+                    .refCount();
+            mInFlight.put(page, source);
+        }
+        return source;
+    }
+}
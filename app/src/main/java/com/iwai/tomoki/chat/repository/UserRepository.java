@@ -0,0 +1,98 @@
+package com.iwai.tomoki.chat.repository;
+
+import com.iwai.tomoki.chat.api.randomuser.RandomUserApi;
+import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
+import com.iwai.tomoki.chat.app.ChatApplication;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import timber.log.Timber;
+
+/**
+ * ユーザー情報リポジトリクラス
+ * <p>
+ * ローカルに保存済みのページを即座に返却し、バックグラウンドでAPIから再取得します(stale-while-revalidate)。
+ * 再取得したページは、保存済みの内容と異なる場合のみ通知されます。
+ */
+public class UserRepository {
+    private static UserRepository instance;
+
+    private final UserDatabaseHelper mDatabase;
+
+    /**
+     * インスタンスを取得します。
+     *
+     * @return {@link UserRepository}
+     */
+    public static UserRepository getInstance() {
+        synchronized (UserRepository.class) {
+            if (instance == null) {
+                instance = new UserRepository();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * コンストラクタ
+     */
+    private UserRepository() {
+        mDatabase = new UserDatabaseHelper(ChatApplication.getInstance());
+    }
+
+    /**
+     * ユーザー一覧を取得します。
+     * 保存済みのページがあればまずそれを通知し、その後APIの取得結果が保存済みの内容と異なる場合のみ再度通知します。
+     * 保存済みのページがなく通信にも失敗した場合は、空のレスポンスを通知します。
+     * 保存済みのページがある場合、APIが空のページを返しても保存済みの内容は上書きせず、通知もしません。
+     *
+     * @param page ページ番号
+     * @return {@link RandomUserResponse}
+     */
+    public Observable<RandomUserResponse> list(final int page) {
+        return Observable.fromCallable(() -> mDatabase.load(page)).flatMap(cached -> {
+            final Observable<RandomUserResponse> network = RandomUserApi.get().list(page)
+                    // 空のページで保存済みの内容を上書きしない
+                    .filter(res -> cached.isEmpty() || (res.results != null && !res.results.isEmpty()))
+                    // 保存済みの内容から変化がない場合は通知しない
+                    .filter(res -> cached.isEmpty() || !cached.equals(res.results))
+                    // ローカルへ保存(空のページは保存しない)
+                    .doOnNext(res -> {
+                        if (res.results != null && !res.results.isEmpty()) {
+                            save(page, res.results);
+                        }
+                    })
+                    .map(res -> new RandomUserResponse(page, res.results))
+                    .onErrorResumeNext(cached.isEmpty()
+                            ? Observable.just(new RandomUserResponse(page, cached))
+                            : Observable.empty());
+
+            if (cached.isEmpty()) {
+                return network;
+            }
+            return Observable.just(new RandomUserResponse(page, cached)).concatWith(network);
+        });
+    }
+
+    /**
+     * 保存済みのユーザー情報を全て削除します。
+     */
+    public void clear() {
+        mDatabase.clear();
+    }
+
+    /**
+     * ページを保存します。保存に失敗しても表示は継続します。
+     *
+     * @param page  ページ番号
+     * @param users ユーザーリスト
+     */
+    private void save(final int page, final List<RandomUserResponse.User> users) {
+        try {
+            mDatabase.save(page, users);
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+}
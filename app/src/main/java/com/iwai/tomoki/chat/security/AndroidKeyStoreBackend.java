@@ -0,0 +1,178 @@
+package com.iwai.tomoki.chat.security;
+
+import android.os.Build;
+import android.security.KeyPairGeneratorSpec;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.util.Base64;
+
+import com.annimon.stream.Optional;
+import com.iwai.tomoki.chat.app.ChatApplication;
+import com.iwai.tomoki.chat.util.SharedPreferencesUtil;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.Calendar;
+
+import javax.security.auth.x500.X500Principal;
+
+import timber.log.Timber;
+
+/**
+ * AndroidKeyStoreプロバイダに鍵を保管する{@link KeyStoreBackend}実装クラス
+ */
+public class AndroidKeyStoreBackend implements KeyStoreBackend {
+    // エイリアス
+    private static final String KEY_STORE_ALIAS = "ChatApplication";
+    // アルゴリズム(Android 6.0未満もサポートするならRSAにする)
+    private static final String KEY_STORE_ALGORITHM = "RSA";
+    // プロバイダ名
+    private static final String KEY_STORE_PROVIDER = "AndroidKeyStore";
+
+    private KeyStore mKeyStore;
+
+    /**
+     * コンストラクタ
+     */
+    public AndroidKeyStoreBackend() {
+        try {
+            mKeyStore = KeyStore.getInstance(KEY_STORE_PROVIDER);
+            mKeyStore.load(null);
+        } catch (Exception e) {
+            Timber.e(e);
+            throw new IllegalStateException("Device does not support AndroidKeyStore.");
+        }
+    }
+
+    /**
+     * AndroidKeyStoreに、公開鍵認証基盤における公開鍵と秘密鍵を生成します。生成された鍵はAndroidKeyStoreに保存されます。
+     *
+     * @return {@link KeyPair}
+     */
+    private KeyPair createKeyPair() {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_STORE_ALGORITHM, KEY_STORE_PROVIDER);
+            generator.initialize(AndroidKeyStoreBackend.createCryptographicParam());
+            final KeyPair keyPair = generator.generateKeyPair();
+            // 以前の鍵ペアで暗号化したデータ暗号鍵は復号化できないため破棄する
+            SharedPreferencesUtil.setDataKey(null);
+            return keyPair;
+        } catch (Exception e) {
+            throw new IllegalStateException("Device does not support AndroidKeyStore.", e);
+        }
+    }
+
+    /**
+     * 暗号化パラメータを生成します。
+     * {@link KeyPairGeneratorSpec}は@{@link Deprecated}に指定されていますが、Android 6.0未満をサポート対象とするので当該クラスの利用は不可避です。
+     *
+     * @return {@link KeyPairGeneratorSpec}
+     */
+    @SuppressWarnings("deprecation")
+    private static KeyPairGeneratorSpec createCryptographicParam() {
+        final Calendar start = Calendar.getInstance();
+        final Calendar end = Calendar.getInstance();
+        end.add(Calendar.YEAR, 20);
+
+        return new KeyPairGeneratorSpec.Builder(ChatApplication.getInstance())
+                .setAlias(KEY_STORE_ALIAS)
+                .setSubject(new X500Principal(String.format("CN=%s", KEY_STORE_ALIAS)))
+                .setSerialNumber(BigInteger.valueOf(1))
+                .setStartDate(start.getTime())
+                .setEndDate(end.getTime())
+                .setKeySize(1024)
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PublicKey getPublicKey() {
+        try {
+            return Optional.ofNullable(mKeyStore.getEntry(KEY_STORE_ALIAS, null)).map(KeyStore.PrivateKeyEntry.class::cast)
+                    // 証明書
+                    .map(KeyStore.PrivateKeyEntry::getCertificate)
+                    // 公開鍵
+                    .map(Certificate::getPublicKey)
+                    // 新規生成
+                    .orElseGet(() -> createKeyPair().getPublic());
+        } catch (Exception e) {
+            throw new IllegalStateException("Public-key could not be found in android key store.", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PrivateKey getPrivateKey() {
+        try {
+            if (!mKeyStore.containsAlias(KEY_STORE_ALIAS)) {
+                throw new IllegalStateException("key store was not initialized.");
+            }
+
+            return ((KeyStore.PrivateKeyEntry) mKeyStore.getEntry(KEY_STORE_ALIAS, null)).getPrivateKey();
+        } catch (Exception e) {
+            throw new IllegalStateException("Private-key could ot be found in android key store.", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteKeyPair() {
+        try {
+            mKeyStore.deleteEntry(KEY_STORE_ALIAS);
+        } catch (KeyStoreException ignored) {
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isKeyPairLost(final Throwable error) {
+        // 鍵が永続的に無効化されている(Android 6.0以降)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            for (Throwable e = error; e != null; e = e.getCause()) {
+                if (e instanceof KeyPermanentlyInvalidatedException) {
+                    return true;
+                }
+            }
+        }
+
+        // 鍵が削除されている
+        try {
+            return !mKeyStore.containsAlias(KEY_STORE_ALIAS);
+        } catch (KeyStoreException e) {
+            // 判定できない場合は一時的な障害として扱う
+            Timber.w(e);
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] loadWrappedDataKey() {
+        return Optional.ofNullable(SharedPreferencesUtil.getDataKey())
+                .map(encoded -> Base64.decode(encoded, Base64.NO_WRAP))
+                .orElse(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveWrappedDataKey(final byte[] wrapped) {
+        SharedPreferencesUtil.setDataKey(Base64.encodeToString(wrapped, Base64.NO_WRAP));
+    }
+}
@@ -1,120 +1,160 @@
 package com.iwai.tomoki.chat.security;
 
-import android.security.KeyPairGeneratorSpec;
-import android.util.Base64;
-
-import com.annimon.stream.Optional;
-import com.iwai.tomoki.chat.app.ChatApplication;
-
-import java.math.BigInteger;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.cert.Certificate;
-import java.util.Calendar;
+import java.security.SecureRandom;
 
 import javax.crypto.Cipher;
-import javax.security.auth.x500.X500Principal;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import okio.ByteString;
 import timber.log.Timber;
 
 /**
  * AndroidKeyStoreプロバイダが提供する機能へアクセスするためのマネージャークラス
+ * <p>
+ * 鍵の保管先は{@link KeyStoreBackend}で差し替えることができます。{@link #getInstance()}は{@link AndroidKeyStoreBackend}を利用します。
+ * Android APIには依存しないため、{@link SoftwareKeyStoreBackend}と組み合わせてJVM上でテスト・計測できます。
  */
 public class AndroidKeyStoreManager {
-    // エイリアス
-    private static final String KEY_STORE_ALIAS = "ChatApplication";
-    // アルゴリズム(Android 6.0未満もサポートするならRSAにする)
-    private static final String KEY_STORE_ALGORITHM = "RSA";
-    // プロバイダ名
-    private static final String KEY_STORE_PROVIDER = "AndroidKeyStore";
+    /**
+     * キーストアのクリアを通知するリスナー
+     */
+    public interface OnClearListener {
+        /**
+         * キーストアがクリアされた際に呼び出されます。鍵で復号化済みの値を破棄してください。
+         */
+        void onClear();
+    }
+
     // 暗号化アルゴリズム
     private static final String CIPHER_ALGORITHM = "RSA/ECB/PKCS1Padding";
+    // データ暗号化アルゴリズム
+    private static final String DATA_CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    // データ暗号鍵のアルゴリズム
+    private static final String DATA_KEY_ALGORITHM = "AES";
+    // データ暗号鍵の長さ(byte)
+    private static final int DATA_KEY_LENGTH = 32;
+    // GCMの初期化ベクトルの長さ(byte)
+    private static final int GCM_IV_LENGTH = 12;
+    // GCMの認証タグの長さ(bit)
+    private static final int GCM_TAG_LENGTH = 128;
+    // エンベロープ形式のバージョン
+    private static final int ENVELOPE_VERSION = 1;
+    // ストリーム処理のバッファサイズ
+    private static final int BUFFER_SIZE = 8192;
+
+    private static volatile AndroidKeyStoreManager mInstance;
+
+    // バックグラウンドでの初期化処理
+    private static Single<AndroidKeyStoreManager> mBootstrap;
 
-    private static AndroidKeyStoreManager mInstance;
+    // 鍵の保管先
+    private final KeyStoreBackend mBackend;
 
-    private KeyStore mKeyStore;
+    // クリア通知リスナー
+    private final OnClearListener mOnClearListener;
+
+    private final SecureRandom mRandom = new SecureRandom();
+
+    // RSA鍵で暗号化して保存しているデータ暗号鍵のキャッシュ
+    private volatile SecretKey mDataKey;
+
+    // 公開鍵のキャッシュ
+    private volatile PublicKey mPublicKey;
+    // 秘密鍵のキャッシュ
+    private volatile PrivateKey mPrivateKey;
+
+    // スレッド毎の初期化済み暗号化用Cipher
+    private final ThreadLocal<CipherSlot> mEncryptCipher = new CipherSlotThreadLocal(CIPHER_ALGORITHM);
+    // スレッド毎の初期化済み復号化用Cipher
+    private final ThreadLocal<CipherSlot> mDecryptCipher = new CipherSlotThreadLocal(CIPHER_ALGORITHM);
+    // スレッド毎のデータ暗号化用Cipher(IVが毎回異なるため初期化は都度行う)
+    private final ThreadLocal<CipherSlot> mDataCipher = new CipherSlotThreadLocal(DATA_CIPHER_ALGORITHM);
 
     /**
      * コンストラクタ
+     *
+     * @param backend         鍵の保管先
+     * @param onClearListener {@link OnClearListener}
      */
-    private AndroidKeyStoreManager() {
-        try {
-            mKeyStore = KeyStore.getInstance(KEY_STORE_PROVIDER);
-            mKeyStore.load(null);
-        } catch (Exception e) {
-            Timber.e(e);
-            throw new IllegalStateException("Device does not support AndroidKeyStore.");
-        }
+    public AndroidKeyStoreManager(final KeyStoreBackend backend, final OnClearListener onClearListener) {
+        mBackend = backend;
+        mOnClearListener = onClearListener;
     }
 
     /**
-     * インスタンスを取得します。
+     * インスタンスを取得します。初回はキーストアの読み込みを行うため、mainスレッドからは{@link #bootstrap()}を利用してください。
      */
     public static AndroidKeyStoreManager getInstance() {
-        if (mInstance == null) {
-            mInstance = new AndroidKeyStoreManager();
+        AndroidKeyStoreManager instance = mInstance;
+        if (instance == null) {
+            synchronized (AndroidKeyStoreManager.class) {
+                if (mInstance == null) {
+                    mInstance = new AndroidKeyStoreManager(new AndroidKeyStoreBackend(), CredentialHolder::clear);
+                }
+                instance = mInstance;
+            }
         }
-        return mInstance;
+        return instance;
     }
 
     /**
-     * AndroidKeyStoreに、公開鍵認証基盤における公開鍵と秘密鍵を生成します。生成された鍵はAndroidKeyStoreに保存されます。
+     * バックグラウンドでキーストアの読み込みと鍵ペアの生成を開始します。
+     * 初期化済みのインスタンスを通知する{@link Single}を返却します。{@link android.app.Application#onCreate()}から呼び出してください。
      *
-     * @return {@link KeyPair}
+     * @return 初期化済みの{@link AndroidKeyStoreManager}を通知する{@link Single}
      */
-    private KeyPair createKeyPair() {
-        try {
-            final KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_STORE_ALGORITHM, KEY_STORE_PROVIDER);
-            generator.initialize(AndroidKeyStoreManager.createCryptographicParam());
-            return generator.generateKeyPair();
-        } catch (Exception e) {
-            throw new IllegalStateException("Device does not support AndroidKeyStore.", e);
+    public static synchronized Single<AndroidKeyStoreManager> bootstrap() {
+        if (mBootstrap == null) {
+            mBootstrap = Single.fromCallable(() -> {
+                final AndroidKeyStoreManager manager = getInstance();
+                // 鍵ペアが存在しなければここで生成する
+                manager.getPublicKey();
+                return manager;
+            })
+                    // 共有スレッドプール上で完了を待つ呼び出し元とデッドロックしないよう、専用のスレッドで実行する
+                    .subscribeOn(Schedulers.io())
+                    // 失敗した場合は次回呼び出し時に再試行する
+                    .doOnError(e -> resetBootstrap())
+                    .cache();
+
+            mBootstrap.subscribe(manager -> Timber.d("AndroidKeyStore is ready."), Timber::e);
         }
+        return mBootstrap;
     }
 
     /**
-     * 暗号化パラメータを生成します。
-     * {@link KeyPairGeneratorSpec}は@{@link Deprecated}に指定されていますが、Android 6.0未満をサポート対象とするので当該クラスの利用は不可避です。
-     *
-     * @return {@link KeyPairGeneratorSpec}
+     * 初期化処理を破棄します。
      */
-    @SuppressWarnings("deprecation")
-    private static KeyPairGeneratorSpec createCryptographicParam() {
-        final Calendar start = Calendar.getInstance();
-        final Calendar end = Calendar.getInstance();
-        end.add(Calendar.YEAR, 20);
-
-        return new KeyPairGeneratorSpec.Builder(ChatApplication.getInstance())
-                .setAlias(KEY_STORE_ALIAS)
-                .setSubject(new X500Principal(String.format("CN=%s", KEY_STORE_ALIAS)))
-                .setSerialNumber(BigInteger.valueOf(1))
-                .setStartDate(start.getTime())
-                .setEndDate(end.getTime())
-                .setKeySize(1024)
-                .build();
+    private static synchronized void resetBootstrap() {
+        mBootstrap = null;
     }
 
     /**
-     * 公開鍵を取得します。
+     * 公開鍵を取得します。鍵ペアが存在しない場合は生成します。
      *
      * @return {@link PublicKey}
      */
     private PublicKey getPublicKey() {
-        try {
-            return Optional.ofNullable(mKeyStore.getEntry(KEY_STORE_ALIAS, null)).map(KeyStore.PrivateKeyEntry.class::cast)
-                    // 証明書
-                    .map(KeyStore.PrivateKeyEntry::getCertificate)
-                    // 公開鍵
-                    .map(Certificate::getPublicKey)
-                    // 新規生成
-                    .orElseGet(() -> createKeyPair().getPublic());
-        } catch (Exception e) {
-            throw new IllegalStateException("Public-key could not be found in android key store.", e);
+        PublicKey key = mPublicKey;
+        if (key == null) {
+            key = mBackend.getPublicKey();
+            mPublicKey = key;
         }
+        return key;
     }
 
     /**
@@ -123,15 +163,12 @@ public class AndroidKeyStoreManager {
      * @return {@link PrivateKey}
      */
     private PrivateKey getPrivateKey() {
-        try {
-            if (!mKeyStore.containsAlias(KEY_STORE_ALIAS)) {
-                throw new IllegalStateException("key store was not initialized.");
-            }
-
-            return ((KeyStore.PrivateKeyEntry) mKeyStore.getEntry(KEY_STORE_ALIAS, null)).getPrivateKey();
-        } catch (Exception e) {
-            throw new IllegalStateException("Private-key could ot be found in android key store.", e);
+        PrivateKey key = mPrivateKey;
+        if (key == null) {
+            key = mBackend.getPrivateKey();
+            mPrivateKey = key;
         }
+        return key;
     }
 
     /**
@@ -142,7 +179,7 @@ public class AndroidKeyStoreManager {
      */
     public String encrypt(final String plain) {
         final byte[] encrypted = encrypt(plain.getBytes());
-        return Base64.encodeToString(encrypted, Base64.NO_WRAP);
+        return ByteString.of(encrypted).base64();
     }
 
     /**
@@ -151,12 +188,12 @@ public class AndroidKeyStoreManager {
      * @param bytes byte列
      * @return 暗号化済みbyte列
      */
-    private byte[] encrypt(final byte[] bytes) {
+    public byte[] encrypt(final byte[] bytes) {
+        final CipherSlot slot = mEncryptCipher.get();
         try {
-            final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, getPublicKey());
-            return cipher.doFinal(bytes);
+            return slot.init(Cipher.ENCRYPT_MODE, getPublicKey()).doFinal(bytes);
         } catch (Exception e) {
+            slot.reset();
             Timber.e(e);
             throw new RuntimeException("Failed to encrypt.", e);
         }
@@ -169,8 +206,11 @@ public class AndroidKeyStoreManager {
      * @return 文字列
      */
     public String decrypt(final String encrypted) {
-        final byte[] enc = Base64.decode(encrypted.getBytes(), Base64.NO_WRAP);
-        return new String(decrypt(enc));
+        final ByteString enc = ByteString.decodeBase64(encrypted);
+        if (enc == null) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+        return new String(decrypt(enc.toByteArray()));
     }
 
     /**
@@ -179,25 +219,264 @@ public class AndroidKeyStoreManager {
      * @param bytes 暗号化済みbyte列
      * @return byte列
      */
-    private byte[] decrypt(byte[] bytes) {
+    public byte[] decrypt(byte[] bytes) {
+        final CipherSlot slot = mDecryptCipher.get();
         try {
-            final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, getPrivateKey());
-
-            return cipher.doFinal(bytes);
+            return slot.init(Cipher.DECRYPT_MODE, getPrivateKey()).doFinal(bytes);
         } catch (Exception e) {
+            slot.reset();
             Timber.e(e);
             throw new RuntimeException("Failed to decrypt.", e);
         }
     }
 
+    /**
+     * データ暗号鍵を取得します。未生成の場合は生成し、RSA公開鍵で暗号化して保存します。
+     * 保存済みの鍵を復号化できない場合、RSA鍵ペアが失われているときのみ鍵を作り直します。
+     * 一時的な障害の可能性がある場合は、保存済みの鍵を残したまま例外を送出します。
+     *
+     * @return {@link SecretKey}
+     */
+    private SecretKey getDataKey() {
+        SecretKey key = mDataKey;
+        if (key != null) {
+            return key;
+        }
+
+        synchronized (this) {
+            if (mDataKey == null) {
+                final byte[] wrapped = mBackend.loadWrappedDataKey();
+                if (wrapped != null) {
+                    try {
+                        mDataKey = new SecretKeySpec(decrypt(wrapped), DATA_KEY_ALGORITHM);
+                    } catch (RuntimeException e) {
+                        if (!mBackend.isKeyPairLost(e)) {
+                            // 保存済みの鍵を上書きすると既存の暗号文が復号化できなくなるため、作り直さない
+                            throw e;
+                        }
+
+                        // RSA鍵が失われている場合は、保存済みの鍵も二度と復号化できないため作り直す
+                        Timber.w(e, "Wrapping key is lost. Data key is regenerated.");
+                        mPublicKey = null;
+                        mPrivateKey = null;
+                    }
+                }
+
+                if (mDataKey == null) {
+                    final byte[] raw = new byte[DATA_KEY_LENGTH];
+                    mRandom.nextBytes(raw);
+                    mBackend.saveWrappedDataKey(encrypt(raw));
+                    mDataKey = new SecretKeySpec(raw, DATA_KEY_ALGORITHM);
+                }
+            }
+            return mDataKey;
+        }
+    }
+
+    /**
+     * キャッシュしているデータ暗号鍵を破棄します。
+     */
+    public static void invalidateDataKey() {
+        final AndroidKeyStoreManager instance = mInstance;
+        if (instance != null) {
+            instance.mDataKey = null;
+        }
+    }
+
+    /**
+     * データをエンベロープ暗号化します。
+     * データはAES-GCMで暗号化し、そのデータ暗号鍵はRSA鍵で暗号化して保存します。RSAと異なりデータサイズの上限はありません。
+     * 出力形式は[バージョン(1byte)][初期化ベクトル(12byte)][暗号文+認証タグ]です。
+     *
+     * @param in  平文の入力ストリーム
+     * @param out 暗号文の出力ストリーム
+     * @throws IOException 入出力エラー
+     */
+    public void encrypt(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] iv = new byte[GCM_IV_LENGTH];
+        mRandom.nextBytes(iv);
+
+        final Cipher cipher;
+        try {
+            cipher = mDataCipher.get().mCipher;
+            cipher.init(Cipher.ENCRYPT_MODE, getDataKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt.", e);
+        }
+
+        out.write(ENVELOPE_VERSION);
+        out.write(iv);
+        pipe(cipher, in, out);
+    }
+
+    /**
+     * {@link #encrypt(InputStream, OutputStream)}で暗号化したデータを復号化します。
+     *
+     * @param in  暗号文の入力ストリーム
+     * @param out 平文の出力ストリーム
+     * @throws IOException 入出力エラー、またはデータが改ざんされている場合
+     */
+    public void decrypt(final InputStream in, final OutputStream out) throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+
+        final int version = din.read();
+        if (version != ENVELOPE_VERSION) {
+            throw new IOException("Unsupported envelope version: " + version);
+        }
+
+        final byte[] iv = new byte[GCM_IV_LENGTH];
+        din.readFully(iv);
+
+        final Cipher cipher;
+        try {
+            cipher = mDataCipher.get().mCipher;
+            cipher.init(Cipher.DECRYPT_MODE, getDataKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to decrypt.", e);
+        }
+
+        pipe(cipher, din, out);
+    }
+
+    /**
+     * バイト列をエンベロープ暗号化します。
+     *
+     * @param bytes 平文
+     * @return 暗号文
+     * @see #encrypt(InputStream, OutputStream)
+     */
+    public byte[] encryptData(final byte[] bytes) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + GCM_IV_LENGTH + GCM_TAG_LENGTH / 8 + 1);
+        try {
+            encrypt(new ByteArrayInputStream(bytes), out);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encrypt.", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * エンベロープ暗号化されたバイト列を復号化します。
+     *
+     * @param bytes 暗号文
+     * @return 平文
+     * @see #decrypt(InputStream, OutputStream)
+     */
+    public byte[] decryptData(final byte[] bytes) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        try {
+            decrypt(new ByteArrayInputStream(bytes), out);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decrypt.", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 入力ストリームを{@link Cipher}で処理して出力ストリームへ書き込みます。
+     *
+     * @param cipher 初期化済み{@link Cipher}
+     * @param in     入力ストリーム
+     * @param out    出力ストリーム
+     * @throws IOException 入出力エラー、または認証タグが一致しない場合
+     */
+    private static void pipe(final Cipher cipher, final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            final byte[] chunk = cipher.update(buf, 0, read);
+            if (chunk != null) {
+                out.write(chunk);
+            }
+        }
+
+        try {
+            out.write(cipher.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to process cipher stream.", e);
+        }
+    }
+
     /**
      * キーストアをクリアします。
      */
     public void clear() {
-        try {
-            mKeyStore.deleteEntry(KEY_STORE_ALIAS);
-        } catch (KeyStoreException ignored) {
+        mOnClearListener.onClear();
+        mDataKey = null;
+        mPublicKey = null;
+        mPrivateKey = null;
+        mBackend.deleteKeyPair();
+    }
+
+    /**
+     * 初期化済みの{@link Cipher}と、初期化に用いた鍵の組
+     */
+    private static class CipherSlot {
+        private final Cipher mCipher;
+        private Key mKey;
+        private int mMode;
+
+        /**
+         * コンストラクタ
+         *
+         * @param cipher {@link Cipher}
+         */
+        private CipherSlot(final Cipher cipher) {
+            mCipher = cipher;
+        }
+
+        /**
+         * 鍵とモードが前回と異なる場合のみ{@link Cipher}を初期化して返却します。
+         * RSAの{@link Cipher}はdoFinal後に初期化直後の状態へ戻るため、そのまま再利用できます。
+         *
+         * @param mode {@link Cipher#ENCRYPT_MODE}または{@link Cipher#DECRYPT_MODE}
+         * @param key  鍵
+         * @return 初期化済み{@link Cipher}
+         * @throws GeneralSecurityException 初期化エラー
+         */
+        private Cipher init(final int mode, final Key key) throws GeneralSecurityException {
+            if (mKey != key || mMode != mode) {
+                mKey = null;
+                mCipher.init(mode, key);
+                mKey = key;
+                mMode = mode;
+            }
+            return mCipher;
+        }
+
+        /**
+         * 次回利用時に再初期化させます。
+         */
+        private void reset() {
+            mKey = null;
+        }
+    }
+
+    /**
+     * スレッド毎に{@link CipherSlot}を生成する{@link ThreadLocal}
+     */
+    private static class CipherSlotThreadLocal extends ThreadLocal<CipherSlot> {
+        private final String mAlgorithm;
+
+        /**
+         * コンストラクタ
+         *
+         * @param algorithm 暗号化アルゴリズム
+         */
+        private CipherSlotThreadLocal(final String algorithm) {
+            mAlgorithm = algorithm;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected CipherSlot initialValue() {
+            try {
+                return new CipherSlot(Cipher.getInstance(mAlgorithm));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cipher is not supported: " + mAlgorithm, e);
+            }
         }
     }
 }
@@ -0,0 +1,51 @@
+package com.iwai.tomoki.chat.security;
+
+import com.iwai.tomoki.chat.util.SharedPreferencesUtil;
+
+/**
+ * 復号化済みのRepl AIユーザーIDをプロセス内で保持するクラス
+ * <p>
+ * 初回アクセス時に一度だけ{@link AndroidKeyStoreManager}で復号化し、以降はメモリ上の値を返却します。
+ * {@link SharedPreferencesUtil#clear()}、{@link AndroidKeyStoreManager#clear()}、ユーザーIDの保存時に破棄されます。
+ */
+public class CredentialHolder {
+    // 復号化済みユーザーID
+    private static volatile String mUserId;
+
+    /**
+     * コンストラクタ
+     */
+    private CredentialHolder() {
+    }
+
+    /**
+     * 復号化済みのユーザーIDを取得します。初回はキーストアの初期化完了を待つため、mainスレッドから呼び出さないでください。
+     *
+     * @return ユーザーID(未登録の場合はnull)
+     */
+    public static String getUserId() {
+        String userId = mUserId;
+        if (userId != null) {
+            return userId;
+        }
+
+        synchronized (CredentialHolder.class) {
+            if (mUserId == null) {
+                final String encrypted = SharedPreferencesUtil.getUserId();
+                if (encrypted != null) {
+                    mUserId = AndroidKeyStoreManager.bootstrap().blockingGet().decrypt(encrypted);
+                }
+            }
+            return mUserId;
+        }
+    }
+
+    /**
+     * 保持しているユーザーIDを破棄します。
+     */
+    public static void clear() {
+        synchronized (CredentialHolder.class) {
+            mUserId = null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.iwai.tomoki.chat.security;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * {@link AndroidKeyStoreManager}が利用する鍵の保管先
+ * <p>
+ * 端末では{@link AndroidKeyStoreBackend}を、JVM上でのテストや計測では{@link SoftwareKeyStoreBackend}を利用します。
+ */
+public interface KeyStoreBackend {
+    /**
+     * RSA公開鍵を取得します。鍵ペアが存在しない場合は生成します。
+     *
+     * @return {@link PublicKey}
+     */
+    PublicKey getPublicKey();
+
+    /**
+     * RSA秘密鍵を取得します。
+     *
+     * @return {@link PrivateKey}
+     * @throws IllegalStateException 鍵ペアが生成されていない場合
+     */
+    PrivateKey getPrivateKey();
+
+    /**
+     * RSA鍵ペアを削除します。
+     */
+    void deleteKeyPair();
+
+    /**
+     * RSA鍵による復号化の失敗が、鍵ペアの消失または永続的な無効化によるものかどうかを判定します。
+     * trueの場合、その鍵ペアで暗号化したデータは二度と復号化できません。
+     *
+     * @param error 復号化時に発生した例外
+     * @return 鍵ペアが失われている場合true(一時的な障害の可能性がある場合はfalse)
+     */
+    boolean isKeyPairLost(Throwable error);
+
+    /**
+     * RSA公開鍵で暗号化済みのデータ暗号鍵を読み込みます。
+     *
+     * @return 暗号化済みデータ暗号鍵(未保存の場合はnull)
+     */
+    byte[] loadWrappedDataKey();
+
+    /**
+     * RSA公開鍵で暗号化済みのデータ暗号鍵を保存します。
+     *
+     * @param wrapped 暗号化済みデータ暗号鍵
+     */
+    void saveWrappedDataKey(byte[] wrapped);
+}
@@ -0,0 +1,86 @@
+package com.iwai.tomoki.chat.security;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * 標準のJCAプロバイダで生成した鍵をメモリ上に保管する{@link KeyStoreBackend}実装クラス
+ * <p>
+ * Android APIに依存しないため、JVM上でのユニットテストやベンチマークで{@link AndroidKeyStoreManager}の処理コストを計測できます。
+ * 鍵は永続化されません。
+ */
+public class SoftwareKeyStoreBackend implements KeyStoreBackend {
+    // アルゴリズム
+    private static final String KEY_ALGORITHM = "RSA";
+    // 鍵長(AndroidKeyStoreBackendに合わせる)
+    private static final int KEY_SIZE = 1024;
+
+    private KeyPair mKeyPair;
+
+    private byte[] mWrappedDataKey;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized PublicKey getPublicKey() {
+        if (mKeyPair == null) {
+            try {
+                final KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+                generator.initialize(KEY_SIZE);
+                mKeyPair = generator.generateKeyPair();
+                // 以前の鍵ペアで暗号化したデータ暗号鍵は復号化できないため破棄する
+                mWrappedDataKey = null;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("RSA is not supported.", e);
+            }
+        }
+        return mKeyPair.getPublic();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized PrivateKey getPrivateKey() {
+        if (mKeyPair == null) {
+            throw new IllegalStateException("key store was not initialized.");
+        }
+        return mKeyPair.getPrivate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void deleteKeyPair() {
+        mKeyPair = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isKeyPairLost(final Throwable error) {
+        return mKeyPair == null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized byte[] loadWrappedDataKey() {
+        return mWrappedDataKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void saveWrappedDataKey(final byte[] wrapped) {
+        mWrappedDataKey = wrapped;
+    }
+}
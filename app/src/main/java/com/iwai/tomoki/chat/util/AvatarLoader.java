@@ -0,0 +1,126 @@
+package com.iwai.tomoki.chat.util;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
+
+import com.iwai.tomoki.chat.api.randomuser.response.RandomUserResponse;
+import com.iwai.tomoki.chat.app.ChatApplication;
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.MemoryPolicy;
+import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.Transformation;
+
+/**
+ * 表示サイズに合わせてプロフィール画像を読み込むユーティリティクラス
+ * <p>
+ * {@link RandomUserResponse.Picture}のうち表示サイズを満たす最小の画像を選び、表示サイズまで縮小してデコードします。
+ * プロフィール画像はJPEGでアルファチャンネルを持たないため、{@link Bitmap.Config#RGB_565}でデコードします。
+ * 変形して表示する画像は{@link TransformedBitmapCache}にキャッシュします。
+ */
+public class AvatarLoader {
+    // サムネイル画像の一辺のピクセル数
+    private static final int THUMBNAIL_SIZE = 48;
+    // medium画像の一辺のピクセル数
+    private static final int MEDIUM_SIZE = 72;
+
+    /**
+     * コンストラクタ
+     */
+    private AvatarLoader() {
+    }
+
+    /**
+     * 表示サイズを満たす最小の画像URLを選択します。
+     *
+     * @param picture {@link RandomUserResponse.Picture}
+     * @param size    表示サイズ(px)
+     * @return 画像URL
+     */
+    public static String selectUrl(final RandomUserResponse.Picture picture, final int size) {
+        if (picture == null) {
+            return null;
+        }
+
+        if (size <= THUMBNAIL_SIZE && picture.getThumbnail() != null) {
+            return picture.getThumbnail();
+        }
+        if (size <= MEDIUM_SIZE && picture.getMedium() != null) {
+            return picture.getMedium();
+        }
+        if (picture.getLarge() != null) {
+            return picture.getLarge();
+        }
+        return picture.getMedium() != null ? picture.getMedium() : picture.getThumbnail();
+    }
+
+    /**
+     * 表示サイズを満たす最小の画像を読み込みます。
+     *
+     * @param picture {@link RandomUserResponse.Picture}
+     * @param size    表示サイズ(px)
+     * @return {@link RequestCreator}
+     */
+    public static RequestCreator load(final RandomUserResponse.Picture picture, final int size) {
+        return load(selectUrl(picture, size), size);
+    }
+
+    /**
+     * 画像を変形して表示します。変形済みの画像がキャッシュにあれば、変形を行わずにそのまま表示します。
+     *
+     * @param url            画像URL
+     * @param size           表示サイズ(px)
+     * @param transformation {@link Transformation}
+     * @param target         表示先
+     */
+    public static void into(final String url, final int size, final Transformation transformation, final ImageView target) {
+        if (url == null) {
+            ChatApplication.getInstance().getPicasso().cancelRequest(target);
+            return;
+        }
+
+        final String key = TransformedBitmapCache.key(url, transformation, size);
+        final Bitmap cached = TransformedBitmapCache.getInstance().get(key);
+        if (cached != null) {
+            // 実行中のリクエストが後から画像を上書きしないようにする
+            ChatApplication.getInstance().getPicasso().cancelRequest(target);
+            target.setImageBitmap(cached);
+            return;
+        }
+
+        // 変形済みの画像はTransformedBitmapCacheで保持するため、Picassoのメモリキャッシュには保存しない
+        load(url, size)
+                .transform(transformation)
+                .memoryPolicy(MemoryPolicy.NO_STORE)
+                .into(target, new Callback() {
+                    @Override
+                    public void onSuccess() {
+                        final Drawable drawable = target.getDrawable();
+                        if (drawable instanceof BitmapDrawable) {
+                            TransformedBitmapCache.getInstance().put(key, ((BitmapDrawable) drawable).getBitmap());
+                        }
+                    }
+
+                    @Override
+                    public void onError() {
+                    }
+                });
+    }
+
+    /**
+     * 画像を表示サイズまで縮小して読み込みます。
+     *
+     * @param url  画像URL
+     * @param size 表示サイズ(px)
+     * @return {@link RequestCreator}
+     */
+    public static RequestCreator load(final String url, final int size) {
+        return ChatApplication.getInstance().getPicasso()
+                .load(url)
+                .resize(size, size)
+                .centerCrop()
+                .onlyScaleDown()
+                .config(Bitmap.Config.RGB_565);
+    }
+}
@@ -0,0 +1,308 @@
+package com.iwai.tomoki.chat.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * メモリマップしたファイルに追記型のログとして文字列を保存するキーバリューストア
+ * <p>
+ * 起動時にログを一度だけ読み込んでメモリ上のマップを構築するため、読み込みはマップの参照のみで完了します。
+ * 書き込みはマップ済み領域への追記のみで、fsyncは行いません(ページキャッシュ経由でOSが書き出します)。
+ * 無効なレコードがログの半分を超えた時点で、有効なレコードのみを新しいファイルへ書き出して置き換えます(コンパクション)。
+ * コンパクション時のみ、新しいファイルをディスクへ反映してから置き換えます。
+ * <p>
+ * ファイル形式: [マジックナンバー(4byte)][ログ終端位置(4byte)][レコード]...
+ * レコード形式: [キー長(4byte)][値長(4byte、削除は-1)][キー(UTF-8)][値(UTF-8)]
+ */
+public class MappedKeyValueStore {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // マジックナンバー("CHKV")
+    private static final int MAGIC = 0x43484B56;
+    // ヘッダーサイズ
+    private static final int HEADER_SIZE = 8;
+    // レコードヘッダーサイズ
+    private static final int RECORD_HEADER_SIZE = 8;
+    // 削除レコードの値長
+    private static final int TOMBSTONE = -1;
+    // 初期ファイルサイズ
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    // コンパクションを行うログサイズの下限
+    private static final int COMPACTION_THRESHOLD = 16 * 1024;
+
+    private final File mFile;
+
+    // 有効な値(読み込みはロックなしで行う)
+    private final Map<String, String> mValues = new ConcurrentHashMap<>();
+
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+
+    // ログ終端位置
+    private int mEnd;
+    // 有効なレコードの合計サイズ
+    private int mLiveBytes;
+
+    /**
+     * コンストラクタ
+     *
+     * @param file 保存先ファイル
+     */
+    public MappedKeyValueStore(final File file) {
+        mFile = file;
+
+        try {
+            open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open key-value store: " + file, e);
+        }
+    }
+
+    /**
+     * 値を取得します。
+     *
+     * @param key    キー
+     * @param defVal デフォルト値
+     * @return 値
+     */
+    public String getString(final String key, final String defVal) {
+        final String value = mValues.get(key);
+        return value == null ? defVal : value;
+    }
+
+    /**
+     * 値を保存します。nullの場合は削除します。
+     *
+     * @param key   キー
+     * @param value 値
+     */
+    public synchronized void putString(final String key, final String value) {
+        final String prev = value == null ? mValues.remove(key) : mValues.put(key, value);
+        if (value == null && prev == null) {
+            return;
+        }
+        if (value != null && value.equals(prev)) {
+            return;
+        }
+
+        if (prev != null) {
+            mLiveBytes -= recordSize(key, prev);
+        }
+        if (value != null) {
+            mLiveBytes += recordSize(key, value);
+        }
+
+        try {
+            append(key, value);
+
+            if (mEnd > COMPACTION_THRESHOLD && mEnd - HEADER_SIZE > mLiveBytes * 2) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write key-value store: " + mFile, e);
+        }
+    }
+
+    /**
+     * 値が1つも保存されていないかどうかを取得します。
+     *
+     * @return 空の場合true
+     */
+    public boolean isEmpty() {
+        return mValues.isEmpty();
+    }
+
+    /**
+     * 全ての値を削除します。
+     */
+    public synchronized void clear() {
+        mValues.clear();
+        mLiveBytes = 0;
+
+        mEnd = HEADER_SIZE;
+        mBuffer.putInt(4, mEnd);
+    }
+
+    /**
+     * ファイルをマップしてログを読み込みます。
+     *
+     * @throws IOException 入出力エラー
+     */
+    private void open() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        final long length = raf.length();
+
+        mChannel = raf.getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, length));
+
+        if (length < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            mBuffer.putInt(0, MAGIC);
+            mEnd = HEADER_SIZE;
+            mBuffer.putInt(4, mEnd);
+            return;
+        }
+
+        replay(Math.min(mBuffer.getInt(4), mBuffer.capacity()));
+    }
+
+    /**
+     * ログを先頭から再生してメモリ上のマップを構築します。壊れたレコード以降は破棄します。
+     *
+     * @param end ログ終端位置
+     */
+    private void replay(final int end) {
+        int pos = HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= end) {
+            final int keyLength = mBuffer.getInt(pos);
+            final int valueLength = mBuffer.getInt(pos + 4);
+
+            // 壊れた長さで加算がオーバーフローしないよう、残りサイズと1つずつ比較する
+            long remaining = (long) end - pos - RECORD_HEADER_SIZE;
+            if (keyLength < 0 || keyLength > remaining) {
+                break;
+            }
+            remaining -= keyLength;
+            if (valueLength < TOMBSTONE || valueLength > remaining) {
+                break;
+            }
+            final int size = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+
+            final String key = readString(pos + RECORD_HEADER_SIZE, keyLength);
+            if (valueLength == TOMBSTONE) {
+                mValues.remove(key);
+            } else {
+                mValues.put(key, readString(pos + RECORD_HEADER_SIZE + keyLength, valueLength));
+            }
+
+            pos += size;
+        }
+
+        mEnd = pos;
+        mBuffer.putInt(4, mEnd);
+
+        mLiveBytes = 0;
+        for (Map.Entry<String, String> entry : mValues.entrySet()) {
+            mLiveBytes += recordSize(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * レコードを追記します。
+     *
+     * @param key   キー
+     * @param value 値(削除の場合はnull)
+     * @throws IOException 入出力エラー
+     */
+    private void append(final String key, final String value) throws IOException {
+        final byte[] k = key.getBytes(UTF_8);
+        final byte[] v = value == null ? null : value.getBytes(UTF_8);
+        final int size = RECORD_HEADER_SIZE + k.length + (v == null ? 0 : v.length);
+
+        if (mEnd + size > mBuffer.capacity()) {
+            // 追記する値は既にマップへ反映済みのため、コンパクションで書き出される
+            compact();
+            return;
+        }
+
+        write(mBuffer, mEnd, k, v);
+        mEnd += size;
+        // レコードを書き終えてから終端位置を更新する
+        mBuffer.putInt(4, mEnd);
+    }
+
+    /**
+     * 有効なレコードのみを新しいファイルへ書き出し、現在のファイルと置き換えます。
+     *
+     * @throws IOException 入出力エラー
+     */
+    private void compact() throws IOException {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (HEADER_SIZE + mLiveBytes) * 2) {
+            capacity *= 2;
+        }
+
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        raf.setLength(0);
+
+        final FileChannel channel = raf.getChannel();
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        int pos = HEADER_SIZE;
+        for (Map.Entry<String, String> entry : mValues.entrySet()) {
+            final byte[] k = entry.getKey().getBytes(UTF_8);
+            final byte[] v = entry.getValue().getBytes(UTF_8);
+            write(buffer, pos, k, v);
+            pos += RECORD_HEADER_SIZE + k.length + v.length;
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, pos);
+
+        // 書き出し途中のファイルで置き換えないよう、ディスクへ反映してから置き換える
+        buffer.force();
+        channel.force(true);
+
+        if (!tmp.renameTo(mFile)) {
+            channel.close();
+            throw new IOException("Failed to replace " + mFile);
+        }
+
+        mChannel.close();
+        mChannel = channel;
+        mBuffer = buffer;
+        mEnd = pos;
+    }
+
+    /**
+     * レコードを書き込みます。
+     *
+     * @param buffer 書き込み先
+     * @param pos    書き込み位置
+     * @param key    キー
+     * @param value  値(削除の場合はnull)
+     */
+    private static void write(final ByteBuffer buffer, final int pos, final byte[] key, final byte[] value) {
+        buffer.putInt(pos, key.length);
+        buffer.putInt(pos + 4, value == null ? TOMBSTONE : value.length);
+
+        final ByteBuffer dup = buffer.duplicate();
+        dup.position(pos + RECORD_HEADER_SIZE);
+        dup.put(key);
+        if (value != null) {
+            dup.put(value);
+        }
+    }
+
+    /**
+     * マップ済み領域から文字列を読み込みます。
+     *
+     * @param pos    読み込み位置
+     * @param length 長さ
+     * @return 文字列
+     */
+    private String readString(final int pos, final int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer dup = mBuffer.duplicate();
+        dup.position(pos);
+        dup.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * レコードのサイズを算出します。
+     *
+     * @param key   キー
+     * @param value 値
+     * @return レコードのサイズ
+     */
+    private static int recordSize(final String key, final String value) {
+        return RECORD_HEADER_SIZE + key.getBytes(UTF_8).length + value.getBytes(UTF_8).length;
+    }
+}
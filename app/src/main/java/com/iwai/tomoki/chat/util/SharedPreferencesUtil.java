@@ -4,24 +4,65 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.iwai.tomoki.chat.app.ChatApplication;
+import com.iwai.tomoki.chat.security.AndroidKeyStoreManager;
+import com.iwai.tomoki.chat.security.CredentialHolder;
+
+import java.io.File;
+import java.util.Map;
 
 /**
- * {@link SharedPreferences}にアクセスするためのユーティリティクラス
+ * アプリケーション設定にアクセスするためのユーティリティクラス
+ * <p>
+ * 値は{@link SharedPreferences}ではなく{@link MappedKeyValueStore}に保存します。
+ * 旧バージョンで{@link SharedPreferences}に保存した値は、初回アクセス時に移行します。
  */
 public class SharedPreferencesUtil {
     private static final String NAME = "chat";
+    // 保存先ファイル名
+    private static final String STORE_FILE_NAME = "chat.kv";
 
     // お客さまID
     private static final String KEY_USER_ID = "user_id";
+    // 暗号化済みデータ暗号鍵
+    private static final String KEY_DATA_KEY = "data_key";
+
+    private static MappedKeyValueStore mStore;
+
+    /**
+     * Get key-value store.
+     *
+     * @return {@link MappedKeyValueStore}
+     */
+    private static synchronized MappedKeyValueStore getStore() {
+        if (mStore == null) {
+            final ChatApplication app = ChatApplication.getInstance();
+            mStore = new MappedKeyValueStore(new File(app.getFilesDir(), STORE_FILE_NAME));
+
+            migrate(app.getSharedPreferences(NAME, Context.MODE_PRIVATE), mStore);
+        }
+        return mStore;
+    }
 
     /**
-     * Get shared preferences.
+     * {@link SharedPreferences}に保存されている値を移行します。
      *
-     * @return {@link SharedPreferences}
+     * @param prefs {@link SharedPreferences}
+     * @param store {@link MappedKeyValueStore}
      */
-    @SuppressWarnings("WeakerAccess")
-    public static SharedPreferences getSharedPreferences() {
-        return ChatApplication.getInstance().getSharedPreferences(NAME, Context.MODE_PRIVATE);
+    private static void migrate(final SharedPreferences prefs, final MappedKeyValueStore store) {
+        final Map<String, ?> values = prefs.getAll();
+        if (values.isEmpty()) {
+            return;
+        }
+
+        if (store.isEmpty()) {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                if (entry.getValue() instanceof String) {
+                    store.putString(entry.getKey(), (String) entry.getValue());
+                }
+            }
+        }
+        prefs.edit().clear().apply();
     }
 
     /**
@@ -32,7 +73,7 @@ public class SharedPreferencesUtil {
      * @return String value
      */
     private static String getString(final String key, final String defVal) {
-        return SharedPreferencesUtil.getSharedPreferences().getString(key, defVal);
+        return SharedPreferencesUtil.getStore().getString(key, defVal);
     }
 
     /**
@@ -42,14 +83,16 @@ public class SharedPreferencesUtil {
      * @param value String value
      */
     private static void putString(final String key, final String value) {
-        SharedPreferencesUtil.getSharedPreferences().edit().putString(key, value).apply();
+        SharedPreferencesUtil.getStore().putString(key, value);
     }
 
     /**
      * クリアします。
      */
     public static void clear() {
-        SharedPreferencesUtil.getSharedPreferences().edit().clear().apply();
+        SharedPreferencesUtil.getStore().clear();
+        CredentialHolder.clear();
+        AndroidKeyStoreManager.invalidateDataKey();
     }
 
     /**
@@ -68,5 +111,25 @@ public class SharedPreferencesUtil {
      */
     public static void setUserId(final String userId) {
         putString(KEY_USER_ID, userId);
+        // 復号化済みの値を破棄して次回アクセス時に再度復号化させる
+        CredentialHolder.clear();
+    }
+
+    /**
+     * 暗号化済みのデータ暗号鍵を取得します。
+     *
+     * @return 暗号化済みデータ暗号鍵(Base64エンコード)
+     */
+    public static String getDataKey() {
+        return getString(KEY_DATA_KEY, null);
+    }
+
+    /**
+     * 暗号化済みのデータ暗号鍵を保存します。
+     *
+     * @param dataKey 暗号化済みデータ暗号鍵(Base64エンコード)
+     */
+    public static void setDataKey(final String dataKey) {
+        putString(KEY_DATA_KEY, dataKey);
     }
 }
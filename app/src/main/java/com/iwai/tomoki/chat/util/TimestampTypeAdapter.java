@@ -0,0 +1,202 @@
+package com.iwai.tomoki.chat.util;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * "yyyy-MM-dd HH:mm:ss"形式の日時文字列と{@link Date}を相互変換する{@link TypeAdapter}
+ * <p>
+ * {@link java.text.DateFormat}や{@link java.util.Calendar}を使わずに文字列から直接エポックミリ秒を算出するため、
+ * ロックを取らずに複数スレッドから同時に利用できます。日時はデフォルトタイムゾーンのものとして扱います。
+ * <p>
+ * {@link TimeZone#getDefault()}は同期化された上で複製を返すため、タイムゾーンは保持しておき、
+ * 端末のタイムゾーンが変更された際に{@link #onTimeZoneChanged()}で更新します。
+ */
+public class TimestampTypeAdapter extends TypeAdapter<Date> {
+    // "yyyy-MM-dd HH:mm:ss"の長さ
+    private static final int LENGTH = 19;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * MILLIS_PER_SECOND;
+
+    // 日時の解釈に使うタイムゾーン(端末のデフォルトタイムゾーン)
+    private static volatile TimeZone mTimeZone = TimeZone.getDefault();
+
+    /**
+     * 端末のタイムゾーンが変更された際に呼び出してください。以降の変換は変更後のタイムゾーンで行います。
+     */
+    public static void onTimeZoneChanged() {
+        mTimeZone = TimeZone.getDefault();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(JsonWriter out, Date value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.value(format(value.getTime()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Date read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        final String text = in.nextString();
+        try {
+            return new Date(parse(text));
+        } catch (IllegalArgumentException e) {
+            throw new JsonSyntaxException(text, e);
+        }
+    }
+
+    /**
+     * "yyyy-MM-dd HH:mm:ss"形式の文字列をエポックミリ秒に変換します。
+     *
+     * @param text 日時文字列
+     * @return エポックミリ秒
+     */
+    public static long parse(final String text) {
+        if (text.length() != LENGTH
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            throw new IllegalArgumentException("Unparseable date: " + text);
+        }
+
+        final int year = digits(text, 0, 4);
+        final int month = digits(text, 5, 2);
+        final int day = digits(text, 8, 2);
+        final int hour = digits(text, 11, 2);
+        final int minute = digits(text, 14, 2);
+        final int second = digits(text, 17, 2);
+
+        final long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * MILLIS_PER_SECOND;
+
+        // ローカル時刻をUTCへ変換
+        final TimeZone tz = mTimeZone;
+        return local - tz.getOffset(local - tz.getOffset(local));
+    }
+
+    /**
+     * エポックミリ秒を"yyyy-MM-dd HH:mm:ss"形式の文字列に変換します。
+     *
+     * @param millis エポックミリ秒
+     * @return 日時文字列
+     */
+    public static String format(final long millis) {
+        final long local = millis + mTimeZone.getOffset(millis);
+
+        final long days = floorDiv(local, MILLIS_PER_DAY);
+        final int secondOfDay = (int) ((local - days * MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+
+        // days_from_civilの逆変換
+        final long z = days + 719468;
+        final long era = floorDiv(z, 146097);
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        final char[] buf = new char[LENGTH];
+        put(buf, 0, year, 4);
+        buf[4] = '-';
+        put(buf, 5, month, 2);
+        buf[7] = '-';
+        put(buf, 8, day, 2);
+        buf[10] = ' ';
+        put(buf, 11, secondOfDay / 3600, 2);
+        buf[13] = ':';
+        put(buf, 14, secondOfDay / 60 % 60, 2);
+        buf[16] = ':';
+        put(buf, 17, secondOfDay % 60, 2);
+        return new String(buf);
+    }
+
+    /**
+     * 1970-01-01からの経過日数を算出します。
+     *
+     * @param year  年
+     * @param month 月(1-12)
+     * @param day   日(1-31)
+     * @return 経過日数
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new IllegalArgumentException("Invalid date: " + year + "-" + month + "-" + day);
+        }
+
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = floorDiv(y, 400);
+        final long yoe = y - era * 400;
+        final long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * 負の無限大方向へ丸めた除算を行います。({@link Math}#floorDivはAPI 24以降のため)
+     *
+     * @param x 被除数
+     * @param y 除数(正数)
+     * @return 商
+     */
+    private static long floorDiv(final long x, final long y) {
+        final long q = x / y;
+        return (x % y != 0 && x < 0) ? q - 1 : q;
+    }
+
+    /**
+     * 10進数字列を数値に変換します。
+     *
+     * @param text   文字列
+     * @param offset 開始位置
+     * @param length 桁数
+     * @return 数値
+     */
+    private static int digits(final String text, final int offset, final int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final int d = text.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new IllegalArgumentException("Unparseable date: " + text);
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * 数値をゼロ埋めして書き込みます。
+     *
+     * @param buf    書き込み先
+     * @param offset 開始位置
+     * @param value  数値
+     * @param length 桁数
+     */
+    private static void put(final char[] buf, final int offset, int value, final int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.iwai.tomoki.chat.util;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.squareup.picasso.Transformation;
+
+/**
+ * 変形(丸く切り取るなど)済みの画像をメモリ上にキャッシュするクラス
+ * <p>
+ * 画像URL・{@link Transformation}・表示サイズの組み合わせをキーとし、ヒープ上限の一定割合を超えた分は古いものから破棄します。
+ * 同じ画像を何度も表示する場合、2回目以降は変形もBitmapの生成も行わずにキャッシュ済みの画像を表示できます。
+ */
+public class TransformedBitmapCache {
+    // ヒープ上限に対するキャッシュサイズの割合(1/n)
+    private static final int HEAP_DIVISOR = 16;
+
+    private static TransformedBitmapCache mInstance;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    /**
+     * インスタンスを取得します。
+     *
+     * @return {@link TransformedBitmapCache}
+     */
+    public static synchronized TransformedBitmapCache getInstance() {
+        if (mInstance == null) {
+            mInstance = new TransformedBitmapCache((int) (Runtime.getRuntime().maxMemory() / HEAP_DIVISOR));
+        }
+        return mInstance;
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxBytes キャッシュする最大バイト数
+     */
+    private TransformedBitmapCache(final int maxBytes) {
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * キャッシュのキーを作成します。
+     *
+     * @param url            画像URL
+     * @param transformation {@link Transformation}
+     * @param size           表示サイズ(px)
+     * @return キー
+     */
+    public static String key(final String url, final Transformation transformation, final int size) {
+        return url + '\n' + transformation.key() + '\n' + size;
+    }
+
+    /**
+     * 画像を取得します。
+     *
+     * @param key キー
+     * @return 画像(キャッシュされていない場合はnull)
+     */
+    public Bitmap get(final String key) {
+        final Bitmap bitmap = mCache.get(key);
+        if (bitmap != null && bitmap.isRecycled()) {
+            mCache.remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 画像を保存します。
+     *
+     * @param key    キー
+     * @param bitmap 画像
+     */
+    public void put(final String key, final Bitmap bitmap) {
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * 全ての画像を破棄します。
+     */
+    public void clear() {
+        mCache.evictAll();
+    }
+}
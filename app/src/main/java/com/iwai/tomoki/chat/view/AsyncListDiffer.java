@@ -0,0 +1,248 @@
+package com.iwai.tomoki.chat.view;
+
+import android.support.annotation.MainThread;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import com.iwai.tomoki.chat.app.ChatApplication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * {@link RecyclerView.Adapter}のリストを差し替える際に、差分をバックグラウンドで算出して変更のあった行だけを通知するクラス
+ * <p>
+ * 差分の算出中に次のリストが渡された場合、古い算出結果は破棄します。差分の算出に失敗した場合は全体の変更として通知します。
+ * 行のキーごとに安定したIDを割り当てるため、{@link RecyclerView.Adapter#setHasStableIds(boolean)}と組み合わせて使用できます。
+ * mainスレッドからのみ呼び出してください。
+ *
+ * @param <T> 行のデータ型
+ */
+@MainThread
+public class AsyncListDiffer<T> {
+    /**
+     * 行の比較方法
+     *
+     * @param <T> 行のデータ型
+     */
+    public interface ItemCallback<T> {
+        /**
+         * 行を識別するキーを取得します。キーが等しい行は同じ行として扱います。
+         *
+         * @param item 行のデータ
+         * @return キー
+         */
+        Object getKey(T item);
+
+        /**
+         * 同じ行の内容が等しいかどうかを取得します。等しくない場合は再バインドします。
+         *
+         * @param oldItem 変更前のデータ
+         * @param newItem 変更後のデータ
+         * @return 等しい場合true
+         */
+        boolean areContentsTheSame(T oldItem, T newItem);
+    }
+
+    private final RecyclerView.Adapter<?> mAdapter;
+    private final ItemCallback<T> mCallback;
+
+    // 表示中のリスト
+    private List<T> mList = Collections.emptyList();
+    // 最後に渡されたリスト
+    private List<T> mLatestList = Collections.emptyList();
+
+    // キー → 安定ID
+    private Map<Object, Long> mIds = new HashMap<>();
+    private long mNextId;
+
+    // 差分算出の世代(古い算出結果を破棄するため)
+    private int mGeneration;
+    private Disposable mDiffing;
+
+    /**
+     * コンストラクタ
+     *
+     * @param adapter  変更を通知する{@link RecyclerView.Adapter}
+     * @param callback {@link ItemCallback}
+     */
+    public AsyncListDiffer(final RecyclerView.Adapter<?> adapter, final ItemCallback<T> callback) {
+        mAdapter = adapter;
+        mCallback = callback;
+    }
+
+    /**
+     * 表示中の行数を取得します。
+     *
+     * @return 行数
+     */
+    public int size() {
+        return mList.size();
+    }
+
+    /**
+     * 表示中の行のデータを取得します。
+     *
+     * @param position 位置
+     * @return 行のデータ
+     */
+    public T get(final int position) {
+        return mList.get(position);
+    }
+
+    /**
+     * 表示中の行の安定IDを取得します。
+     *
+     * @param position 位置
+     * @return 安定ID
+     */
+    public long getItemId(final int position) {
+        final Long id = mIds.get(mCallback.getKey(mList.get(position)));
+        return id == null ? RecyclerView.NO_ID : id;
+    }
+
+    /**
+     * 最後に渡されたリストを取得します。差分の算出中の場合は表示中のリストとは異なります。
+     *
+     * @return リスト(変更不可)
+     */
+    public List<T> getLatestList() {
+        return mLatestList;
+    }
+
+    /**
+     * リストを差し替えます。
+     *
+     * @param list        新しいリスト(以降は変更しないこと)
+     * @param onCommitted 変更の通知後に呼び出される処理
+     */
+    public void submitList(final List<T> list, final Runnable onCommitted) {
+        final List<T> newList = Collections.unmodifiableList(new ArrayList<>(list));
+        final int generation = ++mGeneration;
+        mLatestList = newList;
+
+        if (mDiffing != null) {
+            mDiffing.dispose();
+            mDiffing = null;
+        }
+
+        // 一方が空の場合は差分を算出するまでもない
+        final List<T> oldList = mList;
+        if (oldList.isEmpty() || newList.isEmpty()) {
+            commit(newList);
+            if (!oldList.isEmpty()) {
+                mAdapter.notifyItemRangeRemoved(0, oldList.size());
+            }
+            if (!newList.isEmpty()) {
+                mAdapter.notifyItemRangeInserted(0, newList.size());
+            }
+            onCommitted.run();
+            return;
+        }
+
+        mDiffing = Single.fromCallable(() -> DiffUtil.calculateDiff(new Callback(oldList, newList)))
+                .subscribeOn(Schedulers.from(ChatApplication.getInstance().getThreadPoolExecutor()))
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(result -> {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+
+                    mDiffing = null;
+                    commit(newList);
+                    result.dispatchUpdatesTo(mAdapter);
+                    onCommitted.run();
+                }, e -> {
+                    Timber.e(e);
+                    if (generation != mGeneration) {
+                        return;
+                    }
+
+                    // 差分を算出できなかった場合は全体を再描画する
+                    mDiffing = null;
+                    commit(newList);
+                    mAdapter.notifyDataSetChanged();
+                    onCommitted.run();
+                });
+    }
+
+    /**
+     * リストを反映し、新しいリストの行に安定IDを割り当てます。
+     *
+     * @param list 新しいリスト
+     */
+    private void commit(final List<T> list) {
+        final Map<Object, Long> ids = new HashMap<>(list.size() * 2);
+        for (T item : list) {
+            final Object key = mCallback.getKey(item);
+            if (!ids.containsKey(key)) {
+                final Long id = mIds.get(key);
+                ids.put(key, id != null ? id : mNextId++);
+            }
+        }
+
+        mIds = ids;
+        mList = list;
+    }
+
+    /**
+     * {@link DiffUtil}へ渡す比較処理
+     */
+    private class Callback extends DiffUtil.Callback {
+        private final List<T> mOldList;
+        private final List<T> mNewList;
+
+        /**
+         * コンストラクタ
+         *
+         * @param oldList 変更前のリスト
+         * @param newList 変更後のリスト
+         */
+        private Callback(final List<T> oldList, final List<T> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            final Object oldKey = mCallback.getKey(mOldList.get(oldItemPosition));
+            return oldKey != null && oldKey.equals(mCallback.getKey(mNewList.get(newItemPosition)));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mCallback.areContentsTheSame(mOldList.get(oldItemPosition), mNewList.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.iwai.tomoki.chat.view;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.iwai.tomoki.chat.app.ChatApplication;
+import com.iwai.tomoki.chat.util.AvatarLoader;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
+
+/**
+ * スクロール方向の先にある行のプロフィール画像を先読みする{@link RecyclerView.OnScrollListener}
+ * <p>
+ * {@link LinearLayoutManager}の表示範囲から、スクロール方向に続く指定件数の行の画像を低優先度で読み込み、
+ * 行が表示される前に画像キャッシュへ載せておきます。
+ * Picassoの実行待ちキューは優先度順のため、先読みは表示中の行の読み込み(通常優先度)より後に実行されます。
+ * スクロール方向が反転した場合や{@link #cancel()}が呼ばれた場合は、実行中の先読みを中止します。
+ */
+public class AvatarPrefetchScrollListener extends RecyclerView.OnScrollListener {
+    /**
+     * 行の画像URLを提供するインターフェース
+     */
+    public interface UrlProvider {
+        /**
+         * 行の画像URLを取得します。
+         *
+         * @param position 行の位置
+         * @return 画像URL(画像がない場合はnull)
+         */
+        String getUrl(int position);
+    }
+
+    // 表示範囲の何件先まで先読みするか
+    private final int mLookAhead;
+
+    // 表示サイズ(px)
+    private final int mSize;
+
+    // 画像URLの提供元
+    private final UrlProvider mProvider;
+
+    // 先読みの受け取り先(Picassoは弱参照で保持するため、ここで保持する)
+    private final Target[] mTargets;
+    // 次に使用する受け取り先
+    private int mNextTarget;
+
+    // 先読み中のスクロール方向(1: 下, -1: 上, 0: なし)
+    private int mDirection;
+    // 先読みを要求済みの端の行の位置
+    private int mPrefetchedEdge;
+
+    /**
+     * コンストラクタ
+     *
+     * @param lookAhead 表示範囲の何件先まで先読みするか
+     * @param size      表示サイズ(px)
+     * @param provider  {@link UrlProvider}
+     */
+    public AvatarPrefetchScrollListener(final int lookAhead, final int size, final UrlProvider provider) {
+        mLookAhead = lookAhead;
+        mSize = size;
+        mProvider = provider;
+
+        // 同時に先読みするのは最大でlookAhead件
+        mTargets = new Target[lookAhead];
+        for (int i = 0; i < lookAhead; i++) {
+            mTargets[i] = new PrefetchTarget();
+        }
+    }
+
+    /**
+     * 実行中の先読みを全て中止します。
+     */
+    public void cancel() {
+        final Picasso picasso = ChatApplication.getInstance().getPicasso();
+        for (final Target target : mTargets) {
+            picasso.cancelRequest(target);
+        }
+        mDirection = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // レイアウト変更による通知ではスクロール方向が分からないため先読みしない
+        if (dy == 0) {
+            return;
+        }
+
+        final int direction = dy > 0 ? 1 : -1;
+        if (direction != mDirection) {
+            // 反対方向の先読みは不要になるため中止する
+            cancel();
+            mDirection = direction;
+            mPrefetchedEdge = direction > 0 ? -1 : Integer.MAX_VALUE;
+        }
+
+        final LinearLayoutManager lm = (LinearLayoutManager) recyclerView.getLayoutManager();
+        final int count = lm.getItemCount();
+
+        if (direction > 0) {
+            final int last = lm.findLastVisibleItemPosition();
+            if (last == RecyclerView.NO_POSITION) {
+                return;
+            }
+
+            final int to = Math.min(last + mLookAhead, count - 1);
+            for (int i = Math.max(last + 1, mPrefetchedEdge + 1); i <= to; i++) {
+                prefetch(mProvider.getUrl(i));
+            }
+            mPrefetchedEdge = Math.max(mPrefetchedEdge, to);
+        } else {
+            final int first = lm.findFirstVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) {
+                return;
+            }
+
+            final int to = Math.max(first - mLookAhead, 0);
+            for (int i = Math.min(first - 1, mPrefetchedEdge - 1); i >= to; i--) {
+                prefetch(mProvider.getUrl(i));
+            }
+            mPrefetchedEdge = Math.min(mPrefetchedEdge, to);
+        }
+    }
+
+    /**
+     * 画像を先読みします。
+     *
+     * @param url 画像URL
+     */
+    private void prefetch(final String url) {
+        if (url == null) {
+            return;
+        }
+
+        // 最も古い先読みの受け取り先を再利用する(その先読みは中止される)
+        final Target target = mTargets[mNextTarget];
+        mNextTarget = (mNextTarget + 1) % mTargets.length;
+
+        // 表示時と同じ条件で読み込み、同じキャッシュキーで保存させる
+        // 表示中の行の読み込みを待たせないよう、低優先度で実行待ちキューの後ろに回す
+        AvatarLoader.load(url, mSize)
+                .priority(Picasso.Priority.LOW)
+                .into(target);
+    }
+
+    /**
+     * 読み込んだ画像を破棄する{@link Target}実装(キャッシュへの保存のみを目的とする)
+     */
+    private static class PrefetchTarget implements Target {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onBitmapFailed(Drawable errorDrawable) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onPrepareLoad(Drawable placeHolder) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.iwai.tomoki.chat.view;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * 吹き出し(本体の矩形と、左右どちらかの上部から出る三角形の尻尾)を描画する{@link Drawable}
+ * <p>
+ * 形状の{@link Path}はサイズが変わった時点でのみ作り直し、描画時はオブジェクトを生成しません。
+ * 尻尾の分だけ本体が内側に寄るため、表示するViewには尻尾側に尻尾の幅を含めたpaddingを指定してください。
+ */
+public class ChatBubbleDrawable extends Drawable {
+    // 尻尾の方向(bubbleTail属性の値)
+    public final static int DIRECTION_RIGHT = 0;
+    public final static int DIRECTION_LEFT = 1;
+
+    // 描画オブジェクト
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path mPath = new Path();
+
+    // 尻尾の方向
+    private final int mDirection;
+    // 尻尾のサイズ
+    private final float mTailWidth;
+    private final float mTailHeight;
+
+    /**
+     * コンストラクタ
+     *
+     * @param color      色
+     * @param direction  尻尾の方向
+     * @param tailWidth  尻尾の幅
+     * @param tailHeight 尻尾の高さ
+     */
+    public ChatBubbleDrawable(final int color, final int direction, final float tailWidth, final float tailHeight) {
+        mPaint.setColor(color);
+        mDirection = direction;
+        mTailWidth = tailWidth;
+        mTailHeight = tailHeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+
+        // サイズが変わった時だけパスを作り直す
+        mPath.rewind();
+        if (bounds.isEmpty()) {
+            return;
+        }
+
+        final float tailHeight = Math.min(mTailHeight, bounds.height());
+        if (mDirection == DIRECTION_LEFT) {
+            mPath.addRect(bounds.left + mTailWidth, bounds.top, bounds.right, bounds.bottom, Path.Direction.CW);
+            mPath.moveTo(bounds.left + mTailWidth, bounds.top);
+            mPath.lineTo(bounds.left + mTailWidth, bounds.top + tailHeight);
+            mPath.lineTo(bounds.left, bounds.top + tailHeight / 2);
+        } else {
+            mPath.addRect(bounds.left, bounds.top, bounds.right - mTailWidth, bounds.bottom, Path.Direction.CW);
+            mPath.moveTo(bounds.right - mTailWidth, bounds.top);
+            mPath.lineTo(bounds.right - mTailWidth, bounds.top + tailHeight);
+            mPath.lineTo(bounds.right, bounds.top + tailHeight / 2);
+        }
+        mPath.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void draw(Canvas canvas) {
+        canvas.drawPath(mPath, mPaint);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getAlpha() {
+        return mPaint.getAlpha();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -0,0 +1,163 @@
+package com.iwai.tomoki.chat.view;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.style.ClickableSpan;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.iwai.tomoki.chat.R;
+
+/**
+ * {@link TextLayoutCache}で作成済みの{@link StaticLayout}を描画するだけのメッセージ本文View
+ * <p>
+ * {@link android.widget.TextView}と異なり、バインド時・計測時に本文の行分割や文字幅の計測を行いません。
+ * 本文中のリンク({@link ClickableSpan})はタップで開きます。
+ * {@code bubbleTail}属性を指定すると、背景に{@link ChatBubbleDrawable}を設定します。
+ */
+public class MessageBodyView extends View {
+    private TextLayoutCache mCache;
+    private long mId;
+    private int mBucket;
+    private CharSequence mText;
+
+    // 描画中のレイアウト
+    private StaticLayout mLayout;
+
+    /**
+     * コンストラクタ
+     *
+     * @param context {@link Context}
+     * @param attrs   {@link AttributeSet}
+     */
+    public MessageBodyView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        // XMLで定義されたプロパティ値を取得
+        final TypedArray props = context.obtainStyledAttributes(attrs, R.styleable.MessageBodyView);
+        if (props.hasValue(R.styleable.MessageBodyView_bubbleTail)) {
+            setBackground(new ChatBubbleDrawable(
+                    props.getColor(R.styleable.MessageBodyView_bubbleColor, Color.WHITE),
+                    props.getInt(R.styleable.MessageBodyView_bubbleTail, ChatBubbleDrawable.DIRECTION_LEFT),
+                    props.getDimension(R.styleable.MessageBodyView_bubbleTailWidth, 0),
+                    props.getDimension(R.styleable.MessageBodyView_bubbleTailHeight, 0)));
+        }
+        props.recycle();
+    }
+
+    /**
+     * 本文をセットします。
+     *
+     * @param cache  {@link TextLayoutCache}
+     * @param id     メッセージID
+     * @param bucket 表示幅の種別
+     * @param text   本文({@link TextLayoutCache}にない場合に使用)
+     */
+    public void setText(final TextLayoutCache cache, final long id, final int bucket, final CharSequence text) {
+        mCache = cache;
+        mId = id;
+        mBucket = bucket;
+        mText = text;
+        mLayout = null;
+
+        setContentDescription(text);
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (mCache == null) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+
+        final int horizontalPadding = getPaddingLeft() + getPaddingRight();
+        final int maxWidth = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                ? getResources().getDisplayMetrics().widthPixels
+                : MeasureSpec.getSize(widthMeasureSpec);
+        mLayout = mCache.getLayout(mId, mBucket, Math.max(maxWidth - horizontalPadding, 0), mText);
+
+        // 最も長い行に合わせて縮める
+        float lineWidth = 0;
+        for (int i = 0; i < mLayout.getLineCount(); i++) {
+            lineWidth = Math.max(lineWidth, mLayout.getLineWidth(i));
+        }
+        final int width = (int) Math.ceil(lineWidth) + horizontalPadding;
+        final int height = mLayout.getHeight() + getPaddingTop() + getPaddingBottom();
+
+        setMeasuredDimension(
+                resolveSize(Math.max(width, getSuggestedMinimumWidth()), widthMeasureSpec),
+                resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mLayout == null) {
+            return;
+        }
+
+        final int save = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas);
+        canvas.restoreToCount(save);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        final ClickableSpan span = findLink(event);
+        if (span == null) {
+            return super.onTouchEvent(event);
+        }
+
+        if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+            span.onClick(this);
+        }
+        return true;
+    }
+
+    /**
+     * タップ位置のリンクを取得します。
+     *
+     * @param event {@link MotionEvent}
+     * @return リンク(ない場合はnull)
+     */
+    private ClickableSpan findLink(final MotionEvent event) {
+        if (mLayout == null || !(mLayout.getText() instanceof Spanned)) {
+            return null;
+        }
+
+        final Layout layout = mLayout;
+        final int x = (int) event.getX() - getPaddingLeft();
+        final int y = (int) event.getY() - getPaddingTop();
+        if (y < 0 || y > layout.getHeight()) {
+            return null;
+        }
+
+        final int line = layout.getLineForVertical(y);
+        if (x < layout.getLineLeft(line) || x > layout.getLineRight(line)) {
+            return null;
+        }
+
+        final int offset = layout.getOffsetForHorizontal(line, x);
+        final ClickableSpan[] spans = ((Spanned) layout.getText()).getSpans(offset, offset, ClickableSpan.class);
+        return spans.length > 0 ? spans[0] : null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.iwai.tomoki.chat.view;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * {@link RecyclerView}の末尾に近づいた時点で次ページのロードを要求する{@link RecyclerView.OnScrollListener}
+ * <p>
+ * スクロールイベント毎のオブジェクト生成は行いません。ロード要求後は{@link #setLoading(boolean)}で解除されるまで再要求しません。
+ */
+public class PaginationScrollListener extends RecyclerView.OnScrollListener {
+    /**
+     * 次ページのロード要求リスナー
+     */
+    public interface OnLoadMoreListener {
+        /**
+         * 次ページのロードが必要になった際に呼び出されます。
+         */
+        void onLoadMore();
+    }
+
+    // 末尾の何件手前でロードを開始するか
+    private final int mLookAhead;
+
+    // ロード要求リスナー
+    private final OnLoadMoreListener mListener;
+
+    // ロード中フラグ
+    private boolean mLoading;
+
+    /**
+     * コンストラクタ
+     *
+     * @param lookAhead 末尾の何件手前でロードを開始するか
+     * @param listener  {@link OnLoadMoreListener}
+     */
+    public PaginationScrollListener(final int lookAhead, final OnLoadMoreListener listener) {
+        mLookAhead = lookAhead;
+        mListener = listener;
+    }
+
+    /**
+     * ロード中かどうかを設定します。ロード中はロード要求を行いません。
+     *
+     * @param loading ロード中の場合true
+     */
+    public void setLoading(final boolean loading) {
+        mLoading = loading;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // 上方向へのスクロールでは判定しない
+        if (mLoading || dy < 0) {
+            return;
+        }
+
+        final LinearLayoutManager lm = (LinearLayoutManager) recyclerView.getLayoutManager();
+        final int count = lm.getItemCount();
+        if (count == 0) {
+            return;
+        }
+
+        if (lm.findLastVisibleItemPosition() + mLookAhead >= count - 1) {
+            mLoading = true;
+            mListener.onLoadMore();
+        }
+    }
+}
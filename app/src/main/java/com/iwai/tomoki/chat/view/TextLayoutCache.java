@@ -0,0 +1,140 @@
+package com.iwai.tomoki.chat.view;
+
+import android.support.annotation.MainThread;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.util.Linkify;
+import android.util.LruCache;
+import android.util.SparseIntArray;
+
+import com.iwai.tomoki.chat.app.ChatApplication;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * メッセージ本文の{@link StaticLayout}をキャッシュするクラス
+ * <p>
+ * メッセージが届いた時点で{@link #prefetch(long, int, CharSequence)}を呼び出すと、リンクの検出と行分割・文字幅の計測を
+ * バックグラウンドで済ませておきます。バインド時は{@link #getLayout(long, int, int, CharSequence)}でキャッシュを取り出すだけになります。
+ * 行分割に使用する幅は表示側で実際に計測された幅を種別ごとに覚えておき、以降の事前計算に使用します。
+ * 幅が分かる前(最初の画面)や幅が変わった場合は、mainスレッドで作成します。
+ */
+public class TextLayoutCache {
+    private final TextPaint mPaint;
+    private final LruCache<Long, Entry> mCache;
+
+    // 種別ごとの直近の行分割幅(mainスレッドからのみ参照)
+    private final SparseIntArray mWidths = new SparseIntArray();
+
+    /**
+     * コンストラクタ
+     *
+     * @param paint      描画に使用する{@link TextPaint}(以降は変更しないこと)
+     * @param maxEntries キャッシュする最大件数
+     */
+    public TextLayoutCache(final TextPaint paint, final int maxEntries) {
+        mPaint = paint;
+        mCache = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * 描画に使用する{@link TextPaint}を取得します。
+     *
+     * @return {@link TextPaint}
+     */
+    public TextPaint getPaint() {
+        return mPaint;
+    }
+
+    /**
+     * 本文のレイアウトをバックグラウンドで作成します。
+     *
+     * @param id     メッセージID
+     * @param bucket 表示幅の種別(メッセージ種別など)
+     * @param text   本文(他のスレッドから参照するため、以降変更されないもの)
+     */
+    @MainThread
+    public void prefetch(final long id, final int bucket, final CharSequence text) {
+        final int width = mWidths.get(bucket);
+        final Entry cached = mCache.get(id);
+        if (cached != null && (width <= 0 || cached.width == width)) {
+            return;
+        }
+
+        ChatApplication.getInstance().getThreadPoolExecutor().execute(() -> {
+            final CharSequence linked = linkify(text);
+            mCache.put(id, width > 0 ? new Entry(linked, build(linked, width), width) : new Entry(linked, null, 0));
+        });
+    }
+
+    /**
+     * キャッシュ済みの本文を取得します。
+     *
+     * @param id メッセージID
+     * @return リンク検出済みの本文(キャッシュされていない場合はnull)
+     */
+    public CharSequence getText(final long id) {
+        final Entry entry = mCache.get(id);
+        return entry == null ? null : entry.text;
+    }
+
+    /**
+     * 本文のレイアウトを取得します。キャッシュにない場合は作成します。
+     *
+     * @param id     メッセージID
+     * @param bucket 表示幅の種別
+     * @param width  行分割幅
+     * @param text   キャッシュにない場合の本文
+     * @return {@link StaticLayout}
+     */
+    @MainThread
+    public StaticLayout getLayout(final long id, final int bucket, final int width, final CharSequence text) {
+        mWidths.put(bucket, width);
+
+        final Entry entry = mCache.get(id);
+        if (entry != null && entry.layout != null && entry.width == width) {
+            return entry.layout;
+        }
+
+        final CharSequence linked = entry != null ? entry.text : linkify(text);
+        final StaticLayout layout = build(linked, width);
+        mCache.put(id, new Entry(linked, layout, width));
+        return layout;
+    }
+
+    /**
+     * 本文のURLをリンクにします。
+     *
+     * @param text 本文
+     * @return リンク検出済みの本文
+     */
+    private static CharSequence linkify(final CharSequence text) {
+        final SpannableString spannable = new SpannableString(text == null ? "" : text);
+        return Linkify.addLinks(spannable, Linkify.WEB_URLS) ? spannable : spannable.toString();
+    }
+
+    /**
+     * {@link StaticLayout}を作成します。
+     *
+     * @param text  本文
+     * @param width 行分割幅
+     * @return {@link StaticLayout}
+     */
+    @SuppressWarnings("deprecation")
+    private StaticLayout build(final CharSequence text, final int width) {
+        // TextPaintはスレッドセーフではないため複製して使用する
+        return new StaticLayout(text, new TextPaint(mPaint), Math.max(width, 0), Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+
+    /**
+     * キャッシュエントリー
+     */
+    @AllArgsConstructor
+    private static class Entry {
+        private final CharSequence text;
+        private final StaticLayout layout;
+        private final int width;
+    }
+}
@@ -0,0 +1,65 @@
+package com.iwai.tomoki.chat.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AndroidKeyStoreManager}の暗号化処理のコストを{@link SoftwareKeyStoreBackend}で計測するJMHベンチマーク
+ * <p>
+ * ユニットテストのクラスパスで{@code org.openjdk.jmh.Main AndroidKeyStoreManagerBenchmark}を実行してください。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AndroidKeyStoreManagerBenchmark {
+    // 平文のサイズ(byte)
+    @Param({"64", "4096", "65536"})
+    public int size;
+
+    private AndroidKeyStoreManager mManager;
+
+    private byte[] mPlain;
+    private byte[] mEnvelope;
+    private String mEncryptedText;
+
+    @Setup
+    public void setUp() {
+        mManager = new AndroidKeyStoreManager(new SoftwareKeyStoreBackend(), () -> {
+        });
+
+        mPlain = new byte[size];
+        new Random(size).nextBytes(mPlain);
+        mEnvelope = mManager.encryptData(mPlain);
+        mEncryptedText = mManager.encrypt("user-id-0123");
+    }
+
+    @Benchmark
+    public byte[] encryptData() {
+        return mManager.encryptData(mPlain);
+    }
+
+    @Benchmark
+    public byte[] decryptData() {
+        return mManager.decryptData(mEnvelope);
+    }
+
+    @Benchmark
+    public String decryptText() {
+        return mManager.decrypt(mEncryptedText);
+    }
+}
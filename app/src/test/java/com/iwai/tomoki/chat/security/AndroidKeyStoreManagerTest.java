@@ -0,0 +1,215 @@
+package com.iwai.tomoki.chat.security;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link AndroidKeyStoreManager}のエンベロープ暗号化を{@link SoftwareKeyStoreBackend}でJVM上で検証するテスト
+ */
+public class AndroidKeyStoreManagerTest {
+    // エンベロープのヘッダー長(バージョン + 初期化ベクトル)
+    private static final int HEADER_LENGTH = 1 + 12;
+
+    private SoftwareKeyStoreBackend mBackend;
+    private AndroidKeyStoreManager mManager;
+
+    @Before
+    public void setUp() {
+        mBackend = new SoftwareKeyStoreBackend();
+        mManager = new AndroidKeyStoreManager(mBackend, () -> {
+        });
+    }
+
+    @Test
+    public void encryptData_roundTrip() {
+        // ストリーム処理のバッファ境界をまたぐサイズを含める
+        for (int size : new int[]{0, 1, 15, 16, 8191, 8192, 8193, 100000}) {
+            final byte[] plain = random(size);
+            final byte[] envelope = mManager.encryptData(plain);
+
+            assertEquals(size + HEADER_LENGTH + 16, envelope.length);
+            assertArrayEquals(plain, mManager.decryptData(envelope));
+        }
+    }
+
+    @Test
+    public void encrypt_stream_roundTrip() throws IOException {
+        final byte[] plain = random(50000);
+
+        final ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+        mManager.encrypt(new ByteArrayInputStream(plain), envelope);
+
+        final ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        mManager.decrypt(new ByteArrayInputStream(envelope.toByteArray()), decrypted);
+
+        assertArrayEquals(plain, decrypted.toByteArray());
+    }
+
+    @Test
+    public void encryptData_usesFreshIv() {
+        final byte[] plain = random(64);
+
+        assertFalse(Arrays.equals(mManager.encryptData(plain), mManager.encryptData(plain)));
+    }
+
+    @Test
+    public void encrypt_string_roundTrip() {
+        final String encrypted = mManager.encrypt("user-id-0123");
+
+        assertEquals("user-id-0123", mManager.decrypt(encrypted));
+    }
+
+    @Test
+    public void decryptData_detectsTamperedCiphertext() {
+        final byte[] envelope = mManager.encryptData(random(100));
+        envelope[HEADER_LENGTH + 10] ^= 0x01;
+
+        assertTampered(envelope);
+    }
+
+    @Test
+    public void decryptData_detectsTamperedIv() {
+        final byte[] envelope = mManager.encryptData(random(100));
+        envelope[1] ^= 0x01;
+
+        assertTampered(envelope);
+    }
+
+    @Test
+    public void decryptData_detectsTamperedTag() {
+        final byte[] envelope = mManager.encryptData(random(100));
+        envelope[envelope.length - 1] ^= 0x01;
+
+        assertTampered(envelope);
+    }
+
+    @Test
+    public void decryptData_detectsTruncation() {
+        final byte[] envelope = mManager.encryptData(random(100));
+
+        assertTampered(Arrays.copyOf(envelope, envelope.length - 1));
+    }
+
+    @Test
+    public void decryptData_rejectsUnknownVersion() {
+        final byte[] envelope = mManager.encryptData(random(100));
+        envelope[0] = 2;
+
+        assertTampered(envelope);
+    }
+
+    @Test
+    public void dataKey_isSharedThroughBackend() {
+        final byte[] plain = random(100);
+        final byte[] envelope = mManager.encryptData(plain);
+
+        // 保存済みのデータ暗号鍵を復号化して使う
+        final AndroidKeyStoreManager other = new AndroidKeyStoreManager(mBackend, () -> {
+        });
+        assertArrayEquals(plain, other.decryptData(envelope));
+    }
+
+    @Test
+    public void dataKey_isKeptOnTransientFailure() {
+        final FlakyBackend backend = new FlakyBackend();
+        final byte[] envelope = new AndroidKeyStoreManager(backend, () -> {
+        }).encryptData(random(100));
+        final byte[] wrapped = backend.loadWrappedDataKey();
+
+        backend.mFailing = true;
+        try {
+            new AndroidKeyStoreManager(backend, () -> {
+            }).encryptData(random(100));
+            fail();
+        } catch (RuntimeException expected) {
+            // 一時的な障害では保存済みの鍵を上書きしない
+        }
+        assertArrayEquals(wrapped, backend.loadWrappedDataKey());
+
+        backend.mFailing = false;
+        assertNotNull(new AndroidKeyStoreManager(backend, () -> {
+        }).decryptData(envelope));
+    }
+
+    @Test
+    public void dataKey_isRegeneratedWhenKeyPairIsLost() {
+        final byte[] envelope = mManager.encryptData(random(100));
+
+        mBackend.deleteKeyPair();
+        final AndroidKeyStoreManager other = new AndroidKeyStoreManager(mBackend, () -> {
+        });
+
+        // 新しい鍵で暗号化できるが、失われた鍵の暗号文は復号化できない
+        final byte[] plain = random(100);
+        assertArrayEquals(plain, other.decryptData(other.encryptData(plain)));
+        try {
+            other.decryptData(envelope);
+            fail();
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void clear_notifiesListener() {
+        final boolean[] cleared = new boolean[1];
+        new AndroidKeyStoreManager(new SoftwareKeyStoreBackend(), () -> cleared[0] = true).clear();
+
+        assertTrue(cleared[0]);
+    }
+
+    /**
+     * 改ざんを検出して例外を送出することを検証します。
+     *
+     * @param envelope 改ざんしたエンベロープ
+     */
+    private void assertTampered(final byte[] envelope) {
+        try {
+            mManager.decryptData(envelope);
+            fail();
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * 乱数のバイト列を生成します。
+     *
+     * @param size サイズ
+     * @return バイト列
+     */
+    private static byte[] random(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 秘密鍵の取得に一時的に失敗する{@link KeyStoreBackend}
+     */
+    private static class FlakyBackend extends SoftwareKeyStoreBackend {
+        private volatile boolean mFailing;
+
+        @Override
+        public synchronized PrivateKey getPrivateKey() {
+            if (mFailing) {
+                throw new IllegalStateException("key store is busy.");
+            }
+            return super.getPrivateKey();
+        }
+    }
+}
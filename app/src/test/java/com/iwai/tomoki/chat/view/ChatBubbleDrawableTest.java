@@ -0,0 +1,122 @@
+package com.iwai.tomoki.chat.view;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ChatBubbleDrawable}の描画時にオブジェクトを生成しないことを検証するテスト
+ * <p>
+ * 描画先には何もしない{@link Canvas}を使い、{@link Canvas}側の割り当てを除いて{@link ChatBubbleDrawable#draw(Canvas)}だけを計測します。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChatBubbleDrawableTest {
+    // 計測前に実行する描画回数(JITコンパイルを済ませる)
+    private static final int WARM_UP = 10000;
+    // 計測する描画回数
+    private static final int ITERATIONS = 10000;
+    // 計測処理自体の割り当てを見積もる回数
+    private static final int OVERHEAD_SAMPLES = 100;
+    // 許容する割り当て量(バイト)。計測値はTLAB単位で揺れるため、描画1回あたり1バイト未満の誤差を許容する
+    private static final long ALLOCATION_TOLERANCE = ITERATIONS / 10;
+
+    @Test
+    public void draw_allocatesNothing() {
+        final ChatBubbleDrawable drawable = new ChatBubbleDrawable(Color.WHITE, ChatBubbleDrawable.DIRECTION_LEFT, 16, 24);
+        drawable.setBounds(0, 0, 200, 80);
+        final RecordingCanvas canvas = new RecordingCanvas();
+
+        for (int i = 0; i < WARM_UP; i++) {
+            drawable.draw(canvas);
+        }
+
+        // 計測処理自体の割り当てを差し引く(最小値を採用)
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < OVERHEAD_SAMPLES; i++) {
+            final long start = allocatedBytes();
+            overhead = Math.min(overhead, allocatedBytes() - start);
+        }
+
+        final long before = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            drawable.draw(canvas);
+        }
+        final long after = allocatedBytes();
+
+        final long allocated = after - before - overhead;
+        assertTrue("draw() allocated " + allocated + " bytes in " + ITERATIONS + " calls", allocated <= ALLOCATION_TOLERANCE);
+        assertEquals(WARM_UP + ITERATIONS, canvas.mDrawCount);
+    }
+
+    @Test
+    public void draw_rebuildsPathOnBoundsChange() {
+        final ChatBubbleDrawable drawable = new ChatBubbleDrawable(Color.WHITE, ChatBubbleDrawable.DIRECTION_RIGHT, 16, 24);
+        final RecordingCanvas canvas = new RecordingCanvas();
+
+        drawable.setBounds(0, 0, 200, 80);
+        drawable.draw(canvas);
+        final Path path = canvas.mLastPath;
+        assertPathBounds(path, 0, 0, 200, 80);
+
+        drawable.setBounds(10, 20, 310, 140);
+        drawable.draw(canvas);
+        assertSame(path, canvas.mLastPath);
+        assertPathBounds(path, 10, 20, 310, 140);
+    }
+
+    /**
+     * パスの範囲を検証します。
+     *
+     * @param path   {@link Path}
+     * @param left   左端
+     * @param top    上端
+     * @param right  右端
+     * @param bottom 下端
+     */
+    private static void assertPathBounds(final Path path, final float left, final float top, final float right, final float bottom) {
+        final RectF bounds = new RectF();
+        path.computeBounds(bounds, true);
+        assertEquals(left, bounds.left, 0f);
+        assertEquals(top, bounds.top, 0f);
+        assertEquals(right, bounds.right, 0f);
+        assertEquals(bottom, bounds.bottom, 0f);
+    }
+
+    /**
+     * 現在のスレッドがこれまでに割り当てたバイト数を取得します。
+     *
+     * @return バイト数
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 描画内容を記録するだけの{@link Canvas}
+     */
+    private static class RecordingCanvas extends Canvas {
+        private int mDrawCount;
+        private Path mLastPath;
+
+        @Override
+        public void drawPath(Path path, Paint paint) {
+            mDrawCount++;
+            mLastPath = path;
+        }
+    }
+}